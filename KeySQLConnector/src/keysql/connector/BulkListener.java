@@ -0,0 +1,9 @@
+package keysql.connector;
+
+//receives progress of BulkLoader.load,
+//called from client threads, so must not block
+public interface BulkListener {
+	//batch of instances first to first + count - 1, in input order, was replied.
+	//exit code of reply tells if batch was inserted
+	public void batchReplied(long first, int count, ReplyMessage reply);
+}
@@ -0,0 +1,66 @@
+package keysql.connector;
+
+import java.util.Collections;
+import java.util.List;
+
+//outcome of BulkLoader.load
+public final class BulkLoadResult {
+	//batch that was not inserted, its instances can be loaded again
+	public static final class Failure {
+		private final long first;
+		private final int count;
+		private final ReplyMessage reply;
+
+		Failure(long first, int count, ReplyMessage reply) {
+			this.first = first;
+			this.count = count;
+			this.reply = reply;
+		}
+		//index of first instance of batch in input order
+		public long getFirst() {
+			return first;
+		}
+		public int getCount() {
+			return count;
+		}
+		public ReplyMessage getReply() {
+			return reply;
+		}
+		@Override
+		public String toString() {
+			return "instances " + first + ".." + (first + count - 1) + ": " + reply.getExitCode();
+		}
+	}
+
+	private final long instances;
+	private final long batches;
+	private final long insertedInstances;
+	private final List<Failure> failures;
+
+	BulkLoadResult(long instances, long batches, long insertedInstances, List<Failure> failures) {
+		this.instances = instances;
+		this.batches = batches;
+		this.insertedInstances = insertedInstances;
+		this.failures = Collections.unmodifiableList(failures);
+	}
+	//instances matching schema
+	public long getInstances() {
+		return instances;
+	}
+	public long getBatches() {
+		return batches;
+	}
+	//instances of batches replied with EXIT_CODE_SUCCESS
+	public long getInsertedInstances() {
+		return insertedInstances;
+	}
+	//failed batches in input order
+	public List<Failure> getFailures() {
+		return failures;
+	}
+	@Override
+	public String toString() {
+		return "instances " + instances + ", batches " + batches + ", inserted " + insertedInstances
+				+ ", failed batches " + failures.size();
+	}
+}
@@ -0,0 +1,237 @@
+package keysql.connector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+//loads json instances into store: instances are converted as they are read,
+//cut into INSERT statements of bounded size and submitted over the pool,
+//with bounded number of statements in flight, so heap use does not grow with input:
+//BulkLoader.builder(connector, new KeySQLJson(schema, "movie"), "movies_store").build().load(path)
+public final class BulkLoader {
+	public static final int DEFAULT_BATCH_INSTANCES = 1000;
+	public static final long DEFAULT_BATCH_BYTES = 1024 * 1024;
+	public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+	private static final String SEPARATOR = ",\n";
+
+	private final Connector connector;
+	private final IKeySQLJson converter;
+	private final String prefix;
+	private final long prefixBytes;
+	private final int userId;
+	private final int batchInstances;
+	private final long batchBytes;
+	private final int maxInFlight;
+	private final long timeoutMillis;
+	private final Priority priority;
+	private final BulkListener listener;
+	private final ForkJoinPool conversionPool;
+
+	//converter of instances, store they go to, settings default to constants above
+	public static final class Builder {
+		private final Connector connector;
+		private final IKeySQLJson converter;
+		private final String storeName;
+		private int userId = 0;
+		private int batchInstances = DEFAULT_BATCH_INSTANCES;
+		private long batchBytes = DEFAULT_BATCH_BYTES;
+		private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+		private long timeoutMillis;
+		private Priority priority = Priority.BULK;
+		private BulkListener listener = null;
+		private ForkJoinPool conversionPool = null;
+
+		private Builder(Connector connector, IKeySQLJson converter, String storeName) {
+			if (connector == null || converter == null)
+				throw new IllegalArgumentException("Connector and converter must be set");
+			if (storeName == null || storeName.isEmpty())
+				throw new IllegalArgumentException("Store must be set");
+			this.connector = connector;
+			this.converter = converter;
+			this.storeName = storeName;
+			this.timeoutMillis = connector.getOptions().getRequestTimeoutMillis();
+		}
+		public Builder userId(int userId) {
+			this.userId = userId;
+			return this;
+		}
+		//statement is sent when it has that many instances, or batchBytes
+		//of them, instance bigger than batchBytes is sent alone
+		public Builder batchInstances(int batchInstances) {
+			if (batchInstances < 1)
+				throw new IllegalArgumentException("Batch size must be positive");
+			this.batchInstances = batchInstances;
+			return this;
+		}
+		//UTF-8 bytes of one statement, with INSERT line and separators
+		public Builder batchBytes(long batchBytes) {
+			if (batchBytes < 1)
+				throw new IllegalArgumentException("Batch size must be positive");
+			this.batchBytes = batchBytes;
+			return this;
+		}
+		//statements sent and not replied, reading waits for reply when reached
+		public Builder maxInFlight(int maxInFlight) {
+			if (maxInFlight < 1)
+				throw new IllegalArgumentException("Statements in flight must be positive");
+			this.maxInFlight = maxInFlight;
+			return this;
+		}
+		//each statement, 0 waits without limit. default is Connector request timeout
+		public Builder timeoutMillis(long timeoutMillis) {
+			this.timeoutMillis = timeoutMillis;
+			return this;
+		}
+		//Priority.BULK by default, so interactive statements do not wait behind load
+		public Builder priority(Priority priority) {
+			if (priority == null)
+				throw new IllegalArgumentException("Priority must be set");
+			this.priority = priority;
+			return this;
+		}
+		public Builder listener(BulkListener listener) {
+			this.listener = listener;
+			return this;
+		}
+		//instances are converted on pool workers and sent in input order,
+		//null converts them on loading thread (default)
+		public Builder conversionPool(ForkJoinPool conversionPool) {
+			this.conversionPool = conversionPool;
+			return this;
+		}
+		public BulkLoader build() {
+			return new BulkLoader(this);
+		}
+	}
+
+	private BulkLoader(Builder builder) {
+		this.connector = builder.connector;
+		this.converter = builder.converter;
+		this.prefix = "INSERT INTO " + builder.storeName + " INSTANCES\n";
+		this.prefixBytes = RequestWriter.encodedLength(prefix);
+		this.userId = builder.userId;
+		this.batchInstances = builder.batchInstances;
+		this.batchBytes = builder.batchBytes;
+		this.maxInFlight = builder.maxInFlight;
+		this.timeoutMillis = builder.timeoutMillis;
+		this.priority = builder.priority;
+		this.listener = builder.listener;
+		this.conversionPool = builder.conversionPool;
+	}
+
+	public static Builder builder(Connector connector, IKeySQLJson converter, String storeName) {
+		return new Builder(connector, converter, storeName);
+	}
+
+	//returns when all statements are replied, input is not closed.
+	//if interrupted, statements in flight are still replied to listener
+	public BulkLoadResult load(Reader json) throws IOException, InterruptedException {
+		Load load = new Load();
+		try {
+			if (conversionPool != null)
+				converter.convertInstances(json, load::add, conversionPool, true);
+			else
+				converter.convertInstances(json, load::add);
+			load.submit();
+		} catch (Interrupted e) {
+			throw new InterruptedException();
+		}
+		return load.finish();
+	}
+
+	//bytes are decoded as UTF-8
+	public BulkLoadResult load(InputStream json) throws IOException, InterruptedException {
+		return load(new InputStreamReader(json, StandardCharsets.UTF_8));
+	}
+
+	public BulkLoadResult load(Path json) throws IOException, InterruptedException {
+		try (Reader in = Files.newBufferedReader(json, StandardCharsets.UTF_8)) {
+			return load(in);
+		}
+	}
+
+	// converter calls back without checked exceptions, interrupt
+	// is reported by InterruptedException, so flag stays clear
+	private static final class Interrupted extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	// state of one load call, loader may run several at once
+	private final class Load {
+		private final Semaphore inFlight = new Semaphore(maxInFlight);
+		private final StringBuilder batch = new StringBuilder(prefix);
+		private int count = 0;
+		// UTF-8 bytes of statement so far
+		private long bytes = prefixBytes;
+		// instances read, index of next one
+		private long instances = 0;
+		private long batches = 0;
+		private final AtomicLong inserted = new AtomicLong();
+		private final List<BulkLoadResult.Failure> failures = Collections.synchronizedList(new ArrayList<>());
+
+		void add(String instance) {
+			long size = RequestWriter.encodedLength(instance);
+			if (count > 0 && (count == batchInstances || bytes + SEPARATOR.length() + size > batchBytes))
+				submit();
+			if (count > 0) {
+				batch.append(SEPARATOR);
+				bytes += SEPARATOR.length();
+			}
+			batch.append(instance);
+			++count;
+			++instances;
+			bytes += size;
+		}
+
+		// statement of instances added since last one, waits for room in flight
+		void submit() {
+			if (count == 0)
+				return;
+			try {
+				inFlight.acquire();
+			} catch (InterruptedException e) {
+				throw new Interrupted();
+			}
+			final long first = instances - count;
+			final int n = count;
+			++batches;
+			connector.submitBatch(userId, Collections.singletonList(batch.toString()), false, timeoutMillis, priority)
+					.whenComplete((replies, e) -> {
+						try {
+							ReplyMessage reply = replies != null ? replies[0]
+									: new ReplyMessage(new MessageHeader(ReplyMessage.EXIT_CODE_COMUNICATION_ERROR), "");
+							if (reply.getExitCode() == ReplyMessage.EXIT_CODE_SUCCESS)
+								inserted.addAndGet(n);
+							else
+								failures.add(new BulkLoadResult.Failure(first, n, reply));
+							if (listener != null)
+								listener.batchReplied(first, n, reply);
+						} finally {
+							inFlight.release();
+						}
+					});
+			batch.setLength(prefix.length());
+			count = 0;
+			bytes = prefixBytes;
+		}
+
+		BulkLoadResult finish() throws InterruptedException {
+			inFlight.acquire(maxInFlight);
+			inFlight.release(maxInFlight);
+			List<BulkLoadResult.Failure> r = new ArrayList<>(failures);
+			// replies may come out of order
+			r.sort((a, b) -> Long.compare(a.getFirst(), b.getFirst()));
+			return new BulkLoadResult(instances, batches, inserted.get(), r);
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package keysql.connector;
+
+//snapshot of Connector result cache, see Connector.getCacheStatistics()
+public final class CacheStatistics {
+	private final int size;
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long invalidations;
+
+	CacheStatistics(int size, long hits, long misses, long evictions, long invalidations) {
+		this.size = size;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.invalidations = invalidations;
+	}
+	//replies held
+	public int getSize() {
+		return size;
+	}
+	//reads replied from cache
+	public long getHits() {
+		return hits;
+	}
+	//reads sent to server, expired entries included
+	public long getMisses() {
+		return misses;
+	}
+	//entries removed as least recently used
+	public long getEvictions() {
+		return evictions;
+	}
+	//entries removed by statements changing stores
+	public long getInvalidations() {
+		return invalidations;
+	}
+	public double getHitRatio() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+	@Override
+	public String toString() {
+		return "size " + size + ", hits " + hits + ", misses " + misses + ", evictions " + evictions
+				+ ", invalidations " + invalidations;
+	}
+}
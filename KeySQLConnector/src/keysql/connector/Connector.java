@@ -2,122 +2,607 @@ package keysql.connector;
 
 import java.io.IOException;
 import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
-//singleton class that communicate with KeySQL server
-//1. instance must be created with createInstance method 
-//2. Query can be submitted: Connector.getInstance().submit
-//3. To reconnect pair methods can be used: Connector.getInstance().stopClient(), 
+//communicates with one KeySQL server, each instance has its own
+//event loops, connection pool, queue and message ids:
+//1. instance is built with builder, so several servers can be used:
+//   Connector c = Connector.builder().host("10.0.0.2").port(5556).maxPoolSize(64).build();
+//   or default instance is created with createInstance method
+//   servers of one database are added as peers or replicas, read only
+//   statements then go to replicas and others to primaries:
+//   Connector.builder().host("10.0.0.2").port(5556).addReplica("10.0.0.3", 5556).build();
+//2. Query can be submitted: c.submit or Connector.getInstance().submit,
+//   client is started with first query
+//3. Lost connections are opened again in background, SELECT and SHOW statements
+//   on them are sent again (see ConnectorOptions.setReconnectBaseMillis).
+//   To move to other server pair methods can be used: Connector.getInstance().stopClient(),
 //   then Connector.getInstance().startClient
-final public class Connector {
+final public class Connector implements AutoCloseable {
 	private static Connector instance = null;
 	private static final String LOCAL_ADDRESS = "0.0.0.0"; 
-	private static AtomicLong messageId;
-	private KeySQLClient client = null;
+	// every that many EWMA picks go round robin, so endpoints that
+	// score worse are measured again
+	private static final int PROBE_INTERVAL = 16;
+	private final AtomicLong messageId;
+	// primaries first, then replicas
+	private final Endpoint[] endpoints;
+	// statements that change data go to primaries, read only ones to
+	// replicas or to primaries when there is no replica
+	private final Endpoint[] writers;
+	private final Endpoint[] readers;
+	// event loops of all endpoints, null until all are started
+	private volatile KeySQLClient[] clients = null;
+	private final AtomicInteger nextClient = new AtomicInteger(0);
+	private final AtomicInteger nextEndpoint = new AtomicInteger(0);
 	private static Object mutex = new Object();
-	private String host = null;
-	private short port = 0;
+	// guards start and stop of this instance's clients
+	private final Object lock = new Object();
+	private final ConnectorOptions options;
+	// null when cache size is 0
+	private final ResultCache cache;
 	
-	private ConcurrentLinkedQueue<StatementSession> sessions;
+	//host and port of server, settings default to ConnectorOptions
+	public static final class Builder {
+		private String host = LOCAL_ADDRESS;
+		private int port = 0;
+		private final List<Endpoint> more = new ArrayList<>();
+		private ConnectorOptions options = new ConnectorOptions();
+		
+		private Builder() {
+		}
+		public Builder host(String host) {
+			if (host == null || host.isEmpty())
+				throw new IllegalArgumentException("Host must be set");
+			this.host = host;
+			return this;
+		}
+		public Builder port(int port) {
+			if (port < 1 || port > 0xffff)
+				throw new IllegalArgumentException("Invalid port " + port);
+			this.port = port;
+			return this;
+		}
+		//another primary, statements are spread over it and host
+		public Builder addEndpoint(String host, int port) {
+			more.add(endpoint(host, port, false));
+			return this;
+		}
+		//server taking read only statements (SELECT, SHOW)
+		public Builder addReplica(String host, int port) {
+			more.add(endpoint(host, port, true));
+			return this;
+		}
+		public Builder balancing(ConnectorOptions.Balancing balancing) {
+			options.setBalancing(balancing);
+			return this;
+		}
+		//replaces settings given before, options are copied, so setters
+		//of builder do not change them
+		public Builder options(ConnectorOptions options) {
+			if (options == null)
+				throw new IllegalArgumentException("Options must be set");
+			this.options = options.copy();
+			return this;
+		}
+		public Builder minPoolSize(int minPoolSize) {
+			options.setMinPoolSize(minPoolSize);
+			return this;
+		}
+		public Builder maxPoolSize(int maxPoolSize) {
+			options.setMaxPoolSize(maxPoolSize);
+			return this;
+		}
+		public Builder connectTimeoutMillis(long connectTimeoutMillis) {
+			options.setConnectTimeoutMillis(connectTimeoutMillis);
+			return this;
+		}
+		public Builder idleTimeoutMillis(long idleTimeoutMillis) {
+			options.setIdleTimeoutMillis(idleTimeoutMillis);
+			return this;
+		}
+		public Builder eventLoops(int eventLoops) {
+			options.setEventLoops(eventLoops);
+			return this;
+		}
+		//replies of repeated SELECT and SHOW statements are kept
+		public Builder cache(int size, long ttlMillis) {
+			options.setCacheSize(size).setCacheTtlMillis(ttlMillis);
+			return this;
+		}
+		//bounded queue of statements waiting for connection
+		public Builder maxQueuedSessions(int maxQueuedSessions, ConnectorOptions.OverloadPolicy policy) {
+			options.setMaxQueuedSessions(maxQueuedSessions).setOverloadPolicy(policy);
+			return this;
+		}
+		public Builder reservedConnections(int reservedConnections) {
+			options.setReservedConnections(reservedConnections);
+			return this;
+		}
+		public Builder reconnectBackoff(long baseMillis, long maxMillis) {
+			options.setReconnectMaxMillis(maxMillis).setReconnectBaseMillis(baseMillis);
+			return this;
+		}
+		public Builder retryReads(boolean retryReads) {
+			options.setRetryReads(retryReads);
+			return this;
+		}
+		public Builder requestTimeoutMillis(long requestTimeoutMillis) {
+			options.setRequestTimeoutMillis(requestTimeoutMillis);
+			return this;
+		}
+		public Builder pipelineDepth(int pipelineDepth) {
+			options.setPipelineDepth(pipelineDepth);
+			return this;
+		}
+		public Connector build() {
+			if (port == 0)
+				throw new IllegalStateException("Port must be set");
+			List<Endpoint> all = new ArrayList<>(more.size() + 1);
+			all.add(new Endpoint(host, port, false));
+			for (Endpoint endpoint : more)
+				if (!endpoint.isReplica())
+					all.add(endpoint);
+			for (Endpoint endpoint : more)
+				if (endpoint.isReplica())
+					all.add(endpoint);
+			// builder may be used again, connector keeps its own settings
+			return new Connector(all.toArray(new Endpoint[0]), options.copy());
+		}
+		private static Endpoint endpoint(String host, int port, boolean replica) {
+			if (host == null || host.isEmpty())
+				throw new IllegalArgumentException("Host must be set");
+			if (port < 1 || port > 0xffff)
+				throw new IllegalArgumentException("Invalid port " + port);
+			return new Endpoint(host, port, replica);
+		}
+	}
 	
+	private Connector(Endpoint[] endpoints,ConnectorOptions options) {
+		this.messageId = new AtomicLong(0);
+		this.endpoints = endpoints;
+		int primaries = 0;
+		while (primaries < endpoints.length && !endpoints[primaries].isReplica())
+			++primaries;
+		this.writers = Arrays.copyOf(endpoints, primaries);
+		this.readers = primaries == endpoints.length ? writers : Arrays.copyOfRange(endpoints, primaries, endpoints.length);
+		this.options = options;
+		this.cache = options.getCacheSize() == 0 ? null
+				: new ResultCache(options.getCacheSize(), TimeUnit.MILLISECONDS.toNanos(options.getCacheTtlMillis()));
+	}
 	
-	private Connector(String host,short port) {
-		messageId = new AtomicLong(0);
-		sessions = new ConcurrentLinkedQueue<>();
-		this.host = host;
-		this.port = port;
+	private Connector(String host,int port,ConnectorOptions options) {
+		this(new Endpoint[] { new Endpoint(host, port, false) }, options);
 	}
 	
-	private Connector(short port) throws ConnectException, IOException {
-		this(LOCAL_ADDRESS,port);
+	public static Builder builder() {
+		return new Builder();
 	}
 	
-	 
+	//default instance, null until createInstance is called
 	public static Connector getInstance() {
 		return instance;
 	}
 	
-	public static Connector createInstance(String host,short port) {
+	public static Connector createInstance(String host,short port,ConnectorOptions options) {
 		if (instance != null) {
 			throw new RuntimeException("Instance initialized already.");
 		}
 		synchronized (mutex) {
-			instance = new Connector(host, port);
+			instance = new Connector(host, Short.toUnsignedInt(port), options);
 		}
 		return instance;
 	}
 	
+	public static Connector createInstance(String host,short port) {
+		return createInstance(host, port, new ConnectorOptions());
+	}
+	
 	public static Connector createInstance(short port) throws IOException {
 		return createInstance(LOCAL_ADDRESS, port);
 	}
 	
 	public void stopClient() throws InterruptedException {
-		synchronized (mutex) {
-			if (client != null) {
-				client.stop_running();
-				client.join();
-				client = null;
-			}
+		synchronized (lock) {
+			clients = null;
+			for (Endpoint endpoint : endpoints)
+				endpoint.stop();
+		}
+	}
+	
+	//stops client, statements submitted later start it again
+	@Override
+	public void close() {
+		try {
+			stopClient();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 	
 	public boolean startClient(String host,short port) throws IOException {
-		if (client != null && client.isAlive())
+		return startClient(host, Short.toUnsignedInt(port));
+	}
+	
+	//host and port replace those of first primary
+	private boolean startClient(String host,int port) throws IOException {
+		if (clients != null && clients[0].isAlive())
 			return false;
-		synchronized (mutex) {
-			if (client == null) {
-				client = new KeySQLClient(host,port,sessions);
-				client.start();
+		synchronized (lock) {
+			if (clients == null)
+				endpoints[0].setAddress(host, port);
+		}
+		return startClient();
+	}
+	
+	//all endpoints or none are started
+	private boolean startClient() throws IOException {
+		synchronized (lock) {
+			if (clients == null) {
+				List<KeySQLClient> started = new ArrayList<>();
+				try {
+					for (Endpoint endpoint : endpoints)
+						started.addAll(Arrays.asList(endpoint.start(options)));
+				} catch (IOException e) {
+					for (Endpoint endpoint : endpoints)
+						try {
+							endpoint.stop();
+						} catch (InterruptedException ie) {
+							Thread.currentThread().interrupt();
+						}
+					throw e;
+				}
+				clients = started.toArray(new KeySQLClient[0]);
 			}
 		}
-		return client != null && client.isAlive();
+		return clients != null && clients[0].isAlive();
+	}
+	
+	public ConnectorOptions getOptions() {
+		return options;
+	}
+	
+	//pool and queue state summed over event loops, all zero if client is not started
+	public ConnectorStatistics getStatistics() {
+		KeySQLClient[] c = clients;
+		ConnectorStatistics r = new ConnectorStatistics(0, 0, 0, 0, 0, 0);
+		if (c != null)
+			for (KeySQLClient client : c)
+				r = r.add(client.getStatistics());
+		return r;
+	}
+	
+	//all zero if cache is disabled
+	public CacheStatistics getCacheStatistics() {
+		return cache == null ? new CacheStatistics(0, 0, 0, 0, 0) : cache.getStatistics();
+	}
+	
+	//cached replies are dropped, for changes made by other clients
+	public void clearCache() {
+		if (cache != null)
+			cache.clear();
 	}
 	
 	public CompletableFuture<ReplyMessage> submit(int userId, final String query,boolean jsonReply) throws IOException {
-		if (this.client == null)
-			this.startClient(this.host,this.port);
-		return processScriptQuery(userId,query,jsonReply);
+		return submit(userId, query, jsonReply, options.getRequestTimeoutMillis());
+	}
+	
+	//reply with EXIT_CODE_TIMEOUT if query is not replied in timeout, 0 waits without limit.
+	//statements of script share the deadline
+	public CompletableFuture<ReplyMessage> submit(int userId, final String query,boolean jsonReply, long timeoutMillis) throws IOException {
+		return submit(userId, query, jsonReply, timeoutMillis, Priority.NORMAL);
+	}
+	
+	//query waits in lane of priority, see Priority
+	public CompletableFuture<ReplyMessage> submit(int userId, final String query,boolean jsonReply, long timeoutMillis, Priority priority) throws IOException {
+		if (this.clients == null)
+			this.startClient();
+		return processScriptQuery(userId,query,jsonReply,deadline(timeoutMillis),priority);
 	}
 	
 	public CompletableFuture<ReplyMessage> submit(int userId, final String query) throws IOException {
 		return submit(userId, query,false);
 	}
 	
-	public ReplyMessage[] submitScript(int userId, final String[] script) throws InterruptedException, ExecutionException {
-		ReplyMessage[] r = new ReplyMessage[script.length];
-		int pos = 0;
-		for (String query : script) {
-			CompletableFuture<ReplyMessage> promise = new CompletableFuture<ReplyMessage>();
-			sessions.add(new StatementSession(userId, messageId.addAndGet(1),query,false,promise));
-			r[pos++] = promise.get();
+	//single statement, its reply is read as it arrives, see ReplyStream
+	public ReplyStream stream(int userId, final String query, boolean jsonReply) throws IOException {
+		return stream(userId, query, jsonReply, options.getRequestTimeoutMillis());
+	}
+	
+	//stream ends and result has EXIT_CODE_TIMEOUT if reply is not read completely in timeout
+	public ReplyStream stream(int userId, final String query, boolean jsonReply, long timeoutMillis) throws IOException {
+		return stream(userId, query, jsonReply, timeoutMillis, Priority.NORMAL);
+	}
+	
+	public ReplyStream stream(int userId, final String query, boolean jsonReply, long timeoutMillis, Priority priority) throws IOException {
+		if (this.clients == null)
+			this.startClient();
+		ReplyStream stream = new ReplyStream(options.getStreamChunks());
+		if (cache != null && !ConnectorHelper.isReadOnly(query)) {
+			cache.invalidate(query);
+			stream.getResult().whenComplete((reply, e) -> cache.invalidate(query));
 		}
-		return r;
+		enqueue(prepare(new StatementSession(userId, messageId.addAndGet(1), query, jsonReply, stream), deadline(timeoutMillis), priority));
+		return stream;
+	}
+	
+	public ReplyStream stream(int userId, final String query) throws IOException {
+		return stream(userId, query, false);
+	}
+	
+	//statements are sent as they are, without splitting into scripts,
+	//one future completes with replies in list order
+	public CompletableFuture<ReplyMessage[]> submitBatch(int userId, final List<String> statements, boolean jsonReply) {
+		return submitBatch(userId, statements, jsonReply, options.getRequestTimeoutMillis());
+	}
+	
+	//statements not replied in timeout get EXIT_CODE_TIMEOUT
+	public CompletableFuture<ReplyMessage[]> submitBatch(int userId, final List<String> statements, boolean jsonReply, long timeoutMillis) {
+		return submitBatch(userId, statements, jsonReply, timeoutMillis, Priority.NORMAL);
+	}
+	
+	//bulk loads use Priority.BULK, so interactive statements do not wait behind them
+	public CompletableFuture<ReplyMessage[]> submitBatch(int userId, final List<String> statements, boolean jsonReply, long timeoutMillis, Priority priority) {
+		long deadline = deadline(timeoutMillis);
+		StatementBatch batch = new StatementBatch(statements.size());
+		if (statements.isEmpty())
+			return batch.getPromise();
+		long firstId = messageId.getAndAdd(statements.size()) + 1;
+		List<StatementSession> sessions = new ArrayList<>(statements.size());
+		for (int i = 0; i < statements.size(); ++i)
+			sessions.add(prepare(new StatementSession(userId, firstId + i, statements.get(i), jsonReply, batch, i), deadline, priority));
+		if (cache != null) {
+			for (String statement : statements) {
+				if (!ConnectorHelper.isReadOnly(statement)) {
+					cache.invalidate(statement);
+					batch.getPromise().whenComplete((replies, e) -> cache.invalidate(statement));
+				}
+			}
+		}
+		enqueue(sessions);
+		return batch.getPromise();
 	}
-	private CompletableFuture<ReplyMessage> processScriptQuery(int userId, final String query,boolean jsonReply) 
+	
+	public CompletableFuture<ReplyMessage[]> submitBatch(int userId, final List<String> statements) {
+		return submitBatch(userId, statements, false);
+	}
+	
+	public ReplyMessage[] submitScript(int userId, final String[] script) throws InterruptedException, ExecutionException {
+		return submitScriptAsync(userId, script).get();
+	}
+	//replies in script order, see ConnectorOptions.setParallelReads
+	public CompletableFuture<ReplyMessage[]> submitScriptAsync(int userId, final String[] script) {
+		return submitScriptAsync(userId, script, options.getRequestTimeoutMillis());
+	}
+	//statements share the deadline, ones not replied in timeout get EXIT_CODE_TIMEOUT
+	public CompletableFuture<ReplyMessage[]> submitScriptAsync(int userId, final String[] script, long timeoutMillis) {
+		return submitScriptAsync(userId, script, timeoutMillis, Priority.NORMAL);
+	}
+	public CompletableFuture<ReplyMessage[]> submitScriptAsync(int userId, final String[] script, long timeoutMillis, Priority priority) {
+		return execute(userId, script, 0, new ReplyMessage[script.length], false, false, deadline(timeoutMillis), priority);
+	}
+	//System.nanoTime() at timeout, 0 for no timeout
+	private static long deadline(long timeoutMillis) {
+		if (timeoutMillis <= 0)
+			return 0;
+		long r = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		return r == 0 ? 1 : r;
+	}
+	private static StatementSession prepare(StatementSession session, long deadline, Priority priority) {
+		if (deadline != 0)
+			session.setDeadline(deadline);
+		session.setPriority(priority);
+		return session;
+	}
+	//script is chained without waiting, reply of last statement
+	//holds replies of all statements before it
+	private CompletableFuture<ReplyMessage> processScriptQuery(int userId, final String query,boolean jsonReply,long deadline,Priority priority) 
 	{
 		String[] script = ConnectorHelper.createScript(query);
-		CompletableFuture<ReplyMessage> lastPromise = new CompletableFuture<ReplyMessage>();
-		StatementSession lastSession = 
-				new StatementSession(userId, messageId.addAndGet(1),script[script.length - 1],jsonReply,lastPromise);
-		for (int i = 0; i < script.length - 1; ++i) {
-			CompletableFuture<ReplyMessage> promise = new CompletableFuture<ReplyMessage>();
-			sessions.add(new StatementSession(userId, messageId.addAndGet(1),script[i],jsonReply,promise));
+		if (script.length <= 1)
+			return submitStatement(userId, script.length == 0 ? query : script[0], jsonReply, deadline, priority);
+		return execute(userId, script, 0, new ReplyMessage[script.length], jsonReply, true, deadline, priority)
+				.thenApply(Connector::joinReplies);
+	}
+	private CompletableFuture<ReplyMessage> submitStatement(int userId, final String statement, boolean jsonReply, long deadline, Priority priority) {
+		if (cache != null)
+			return submitCached(userId, statement, jsonReply, deadline, priority);
+		CompletableFuture<ReplyMessage> promise = new CompletableFuture<ReplyMessage>();
+		enqueue(prepare(new StatementSession(userId, messageId.addAndGet(1), statement, jsonReply, promise), deadline, priority));
+		return promise;
+	}
+	//read is replied from cache or its reply is kept, change removes
+	//cached reads of its store when sent and when replied
+	private CompletableFuture<ReplyMessage> submitCached(int userId, final String statement, boolean jsonReply, long deadline, Priority priority) {
+		String key = ResultCache.key(userId, jsonReply, statement);
+		CompletableFuture<ReplyMessage> promise = new CompletableFuture<ReplyMessage>();
+		CompletableFuture<ReplyMessage> r;
+		// caller sees reply after cache is updated
+		if (key != null) {
+			ReplyMessage cached = cache.get(key);
+			if (cached != null)
+				return CompletableFuture.completedFuture(cached);
+			long sent = cache.generation();
+			r = promise.thenApply(reply -> {
+				cache.put(key, statement, reply, sent);
+				return reply;
+			});
+		} else {
+			cache.invalidate(statement);
+			r = promise.whenComplete((reply, e) -> cache.invalidate(statement));
+		}
+		// cancel of returned future reaches session, so abort is sent
+		final CompletableFuture<ReplyMessage> returned = r;
+		returned.whenComplete((reply, e) -> {
+			if (returned.isCancelled())
+				promise.cancel(false);
+		});
+		enqueue(prepare(new StatementSession(userId, messageId.addAndGet(1), statement, jsonReply, promise), deadline, priority));
+		return returned;
+	}
+	//statements from index on, next group is submitted when previous one replied.
+	//group is one statement, or consecutive reads if parallel reads are enabled.
+	//with stopOnFailure, statements after communication error are not sent
+	//and replies end with the failed one.
+	//groups replied at once, as cached reads, are done in loop, so long
+	//script does not nest callbacks
+	private CompletableFuture<ReplyMessage[]> execute(int userId, String[] script, int from,
+			ReplyMessage[] replies, boolean jsonReply, boolean stopOnFailure, long deadline, Priority priority) {
+		while (from < script.length) {
+			int to = from + 1;
+			if (options.getParallelReads() && ConnectorHelper.isReadOnly(script[from])) {
+				while (to < script.length && ConnectorHelper.isReadOnly(script[to]))
+					++to;
+			}
+			CompletableFuture<?>[] group = new CompletableFuture<?>[to - from];
+			for (int i = from; i < to; ++i) {
+				final int index = i;
+				group[i - from] = submitStatement(userId, script[i], jsonReply, deadline, priority).thenAccept(reply -> replies[index] = reply);
+			}
+			final int first = from;
+			final int next = to;
+			CompletableFuture<Void> all = CompletableFuture.allOf(group);
+			if (!all.isDone() || all.isCompletedExceptionally()) {
+				return all.thenCompose(done -> {
+					ReplyMessage[] failed = failedReplies(replies, first, next, stopOnFailure);
+					if (failed != null)
+						return CompletableFuture.completedFuture(failed);
+					return execute(userId, script, next, replies, jsonReply, stopOnFailure, deadline, priority);
+				});
+			}
+			ReplyMessage[] failed = failedReplies(replies, first, next, stopOnFailure);
+			if (failed != null)
+				return CompletableFuture.completedFuture(failed);
+			from = next;
+		}
+		return CompletableFuture.completedFuture(replies);
+	}
+	//replies up to first communication error of group, null if there is none
+	private static ReplyMessage[] failedReplies(ReplyMessage[] replies, int from, int to, boolean stopOnFailure) {
+		if (stopOnFailure) {
+			for (int i = from; i < to; ++i) {
+				if (ReplyMessage.EXIT_CODE_COMUNICATION_ERROR == replies[i].getExitCode())
+					return Arrays.copyOf(replies, i + 1);
+			}
+		}
+		return null;
+	}
+	//replies of script as one reply of its last statement
+	private static ReplyMessage joinReplies(ReplyMessage[] replies) {
+		StringBuilder r = new StringBuilder();
+		for (int i = 0; i < replies.length - 1; ++i)
+			r.append(replies[i].getReply()).append("\n\n");
+		ReplyMessage last = replies[replies.length - 1];
+		return new ReplyMessage(last, r.append(last.getReply()).toString());
+	}
+	//queue session to least loaded event loop, its thread is woken,
+	//so session is written without waiting for socket events
+	private void enqueue(StatementSession session) {
+		KeySQLClient[] c = startedClients();
+		if (c == null) {
+			session.setMessageHeader(new MessageHeader(ReplyMessage.EXIT_CODE_COMUNICATION_ERROR));
+			session.setPromise();
+			return;
+		}
+		KeySQLClient client = selectClient(endpoints.length == 1 ? endpoints[0] : selectEndpoint(isReadOnly(session)));
+		if (client == null) {
+			session.setMessageHeader(new MessageHeader(ReplyMessage.EXIT_CODE_COMUNICATION_ERROR));
+			session.setPromise();
+			return;
+		}
+		client.submit(session);
+	}
+	//whole batch goes to one event loop with one wakeup
+	private void enqueue(List<StatementSession> batch) {
+		KeySQLClient[] c = startedClients();
+		if (c == null) {
+			for (StatementSession session : batch) {
+				session.setMessageHeader(new MessageHeader(ReplyMessage.EXIT_CODE_COMUNICATION_ERROR));
+				session.setPromise();
+			}
+			return;
+		}
+		boolean readOnly = endpoints.length > 1;
+		for (int i = 0; i < batch.size() && readOnly; ++i)
+			readOnly = isReadOnly(batch.get(i));
+		KeySQLClient client = selectClient(endpoints.length == 1 ? endpoints[0] : selectEndpoint(readOnly));
+		if (client == null) {
+			for (StatementSession session : batch) {
+				session.setMessageHeader(new MessageHeader(ReplyMessage.EXIT_CODE_COMUNICATION_ERROR));
+				session.setPromise();
+			}
+			return;
+		}
+		client.submit(batch);
+	}
+	private boolean isReadOnly(StatementSession session) {
+		return readers != writers && ConnectorHelper.isReadOnly(session.getRequest());
+	}
+	//null if client can not be started
+	private KeySQLClient[] startedClients() {
+		KeySQLClient[] c = clients;
+		if (c == null) {
 			try {
-				ReplyMessage msg = promise.get();
-				lastSession.getReplyBuffer().append(msg.getReply()).append("\n\n");
-				if (ReplyMessage.EXIT_CODE_COMUNICATION_ERROR == msg.getExitCode()) {
-					stopClient();
-					lastSession.setPromise();
-					return lastPromise;
-				}
-			} catch (InterruptedException | ExecutionException e) {
-				//e.printStackTrace();
+				startClient();
+				c = clients;
+			} catch (IOException e) {
 			}
 		}
-		sessions.add(lastSession);
-		return lastPromise;
+		return c;
+	}
+	//least outstanding sessions or, with EWMA balancing, least outstanding
+	//sessions weighted by reply latency of endpoint
+	private Endpoint selectEndpoint(boolean readOnly) {
+		Endpoint[] e = readOnly ? readers : writers;
+		if (e.length == 1)
+			return e[0];
+		boolean ewma = options.getBalancing() == ConnectorOptions.Balancing.EWMA;
+		long now = System.nanoTime();
+		int pick = nextEndpoint.getAndIncrement() & Integer.MAX_VALUE;
+		if (ewma && pick % PROBE_INTERVAL == 0)
+			return e[pick / PROBE_INTERVAL % e.length];
+		int start = pick % e.length;
+		Endpoint best = e[start];
+		long bestScore = score(best, ewma, now);
+		for (int i = 1; i < e.length; ++i) {
+			Endpoint candidate = e[(start + i) % e.length];
+			long score = score(candidate, ewma, now);
+			if (score < bestScore) {
+				best = candidate;
+				bestScore = score;
+			}
+		}
+		return best;
+	}
+	private static long score(Endpoint endpoint, boolean ewma, long now) {
+		long outstanding = endpoint.outstandingSessions();
+		return ewma ? (endpoint.latencyNanos(now) + 1) * (outstanding + 1) : outstanding;
+	}
+	//null if endpoint is stopped
+	private KeySQLClient selectClient(Endpoint endpoint) {
+		KeySQLClient[] c = endpoint.getClients();
+		if (c == null)
+			return null;
+		return selectClient(c);
+	}
+	//least outstanding sessions, scan starts at rotating position to spread ties
+	private KeySQLClient selectClient(KeySQLClient[] c) {
+		if (c.length == 1)
+			return c[0];
+		int start = (nextClient.getAndIncrement() & Integer.MAX_VALUE) % c.length;
+		KeySQLClient best = c[start];
+		for (int i = 1; i < c.length && best.outstandingSessions() > 0; ++i) {
+			KeySQLClient candidate = c[(start + i) % c.length];
+			if (candidate.outstandingSessions() < best.outstandingSessions())
+				best = candidate;
+		}
+		return best;
 	}
 }
@@ -42,6 +42,27 @@ public class ConnectorHelper {
 		}
 		return out.toArray(new String[out.size()]);
 	}
+	//type of statement by its first keyword, UNKNOWN if not recognized
+	public static StatementType statementType(String statement) {
+		int start = 0;
+		while (start < statement.length() && (Character.isWhitespace(statement.charAt(start)) || statement.charAt(start) == '('))
+			++start;
+		int end = start;
+		while (end < statement.length() && Character.isLetter(statement.charAt(end)))
+			++end;
+		for (StatementType type : StatementType.values()) {
+			String keyword = type.name();
+			if (type != StatementType.UNKNOWN && keyword.length() == end - start
+					&& statement.regionMatches(true, start, keyword, 0, keyword.length()))
+				return type;
+		}
+		return StatementType.UNKNOWN;
+	}
+	//SELECT and SHOW do not change stores, so they may run in any order
+	public static boolean isReadOnly(String statement) {
+		StatementType type = statementType(statement);
+		return type == StatementType.SELECT || type == StatementType.SHOW;
+	}
 	public static String formatSelectReply(String reply, String indent, boolean jsonReply) {
 		final StringBuilder indents = new StringBuilder();
 		final StringBuilder r =  new StringBuilder();
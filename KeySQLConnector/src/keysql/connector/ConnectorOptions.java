@@ -0,0 +1,293 @@
+package keysql.connector;
+
+//client side settings of Connector, setters return this for chaining:
+//new ConnectorOptions().setMinPoolSize(2).setMaxPoolSize(64)
+public class ConnectorOptions implements Cloneable {
+	//what submit does when queue of statements waiting for connection is full
+	public enum OverloadPolicy {
+		//submitting thread waits for room
+		BLOCK,
+		//statement is replied with EXIT_CODE_OVERLOADED
+		FAIL,
+		//oldest queued statement is replied with EXIT_CODE_OVERLOADED
+		SHED
+	}
+
+	//how Connector picks one of several servers
+	public enum Balancing {
+		//fewest queued and in flight statements
+		LEAST_OUTSTANDING,
+		//fewest statements weighted by moving average of reply latency
+		EWMA
+	}
+
+	public static final int DEFAULT_MIN_POOL_SIZE = 4;
+	public static final int DEFAULT_MAX_POOL_SIZE = 32;
+	public static final int DEFAULT_GROW_QUEUE_DEPTH = 1;
+	public static final long DEFAULT_GROW_WAIT_MILLIS = 10;
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+	public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+	public static final int DEFAULT_EVENT_LOOPS = 1;
+	public static final int DEFAULT_PIPELINE_DEPTH = 1;
+	public static final int DEFAULT_STREAM_CHUNKS = 16;
+	public static final long DEFAULT_CACHE_TTL_MILLIS = 10000;
+	public static final int DEFAULT_RESERVED_CONNECTIONS = 1;
+	public static final long DEFAULT_RECONNECT_BASE_MILLIS = 50;
+	public static final long DEFAULT_RECONNECT_MAX_MILLIS = 5000;
+
+	private int minPoolSize = DEFAULT_MIN_POOL_SIZE;
+	private int maxPoolSize = DEFAULT_MAX_POOL_SIZE;
+	private int growQueueDepth = DEFAULT_GROW_QUEUE_DEPTH;
+	private long growWaitMillis = DEFAULT_GROW_WAIT_MILLIS;
+	private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+	private long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+	private int eventLoops = DEFAULT_EVENT_LOOPS;
+	private int pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+	private int streamChunks = DEFAULT_STREAM_CHUNKS;
+	private boolean parallelReads = false;
+	private long requestTimeoutMillis = 0;
+	private int maxQueuedSessions = 0;
+	private int reservedConnections = DEFAULT_RESERVED_CONNECTIONS;
+	private long reconnectBaseMillis = DEFAULT_RECONNECT_BASE_MILLIS;
+	private long reconnectMaxMillis = DEFAULT_RECONNECT_MAX_MILLIS;
+	private boolean retryReads = true;
+	private OverloadPolicy overloadPolicy = OverloadPolicy.BLOCK;
+	private int cacheSize = 0;
+	private long cacheTtlMillis = DEFAULT_CACHE_TTL_MILLIS;
+	private Balancing balancing = Balancing.LEAST_OUTSTANDING;
+	private PoolListener poolListener = null;
+
+	//settings are values and listener, shallow copy is independent of this
+	ConnectorOptions copy() {
+		try {
+			return (ConnectorOptions) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	public int getMinPoolSize() {
+		return minPoolSize;
+	}
+	//connections opened on start and never closed as idle
+	public ConnectorOptions setMinPoolSize(int minPoolSize) {
+		if (minPoolSize < 1)
+			throw new IllegalArgumentException("Pool size must be positive");
+		this.minPoolSize = minPoolSize;
+		if (maxPoolSize < minPoolSize)
+			maxPoolSize = minPoolSize;
+		return this;
+	}
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+	public ConnectorOptions setMaxPoolSize(int maxPoolSize) {
+		if (maxPoolSize < 1)
+			throw new IllegalArgumentException("Pool size must be positive");
+		this.maxPoolSize = maxPoolSize;
+		if (minPoolSize > maxPoolSize)
+			minPoolSize = maxPoolSize;
+		return this;
+	}
+	public int getGrowQueueDepth() {
+		return growQueueDepth;
+	}
+	//pool grows when this many statements wait for a free connection
+	public ConnectorOptions setGrowQueueDepth(int growQueueDepth) {
+		if (growQueueDepth < 1)
+			throw new IllegalArgumentException("Queue depth must be positive");
+		this.growQueueDepth = growQueueDepth;
+		return this;
+	}
+	public long getGrowWaitMillis() {
+		return growWaitMillis;
+	}
+	//pool grows when oldest waiting statement is queued longer than this
+	public ConnectorOptions setGrowWaitMillis(long growWaitMillis) {
+		if (growWaitMillis < 0)
+			throw new IllegalArgumentException("Wait time must not be negative");
+		this.growWaitMillis = growWaitMillis;
+		return this;
+	}
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+	//connections above min pool size are closed after being idle that long
+	public ConnectorOptions setIdleTimeoutMillis(long idleTimeoutMillis) {
+		if (idleTimeoutMillis < 0)
+			throw new IllegalArgumentException("Idle timeout must not be negative");
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		return this;
+	}
+	public long getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+	//connect and handshake with server must complete in that time
+	public ConnectorOptions setConnectTimeoutMillis(long connectTimeoutMillis) {
+		if (connectTimeoutMillis < 1)
+			throw new IllegalArgumentException("Connect timeout must be positive");
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		return this;
+	}
+	public int getEventLoops() {
+		return eventLoops;
+	}
+	//number of client threads, each has own selector and
+	//own shard of pool (pool sizes are split between them)
+	public ConnectorOptions setEventLoops(int eventLoops) {
+		if (eventLoops < 1)
+			throw new IllegalArgumentException("Number of event loops must be positive");
+		this.eventLoops = eventLoops;
+		return this;
+	}
+	public int getPipelineDepth() {
+		return pipelineDepth;
+	}
+	//statements sent on one connection before their replies arrive,
+	//replies are matched by client message id, so server must echo it.
+	//1 - one statement at a time (default)
+	public ConnectorOptions setPipelineDepth(int pipelineDepth) {
+		if (pipelineDepth < 1)
+			throw new IllegalArgumentException("Pipeline depth must be positive");
+		this.pipelineDepth = pipelineDepth;
+		return this;
+	}
+	public int getStreamChunks() {
+		return streamChunks;
+	}
+	//chunks of streamed reply held for reader, connection stops reading
+	//from socket while that many are not taken
+	public ConnectorOptions setStreamChunks(int streamChunks) {
+		if (streamChunks < 1)
+			throw new IllegalArgumentException("Stream chunks must be positive");
+		this.streamChunks = streamChunks;
+		return this;
+	}
+	public boolean getParallelReads() {
+		return parallelReads;
+	}
+	//consecutive SELECT and SHOW statements of script are sent at once
+	//on pooled connections, other statements wait for all before them.
+	//false - statements of script run one after another (default)
+	public ConnectorOptions setParallelReads(boolean parallelReads) {
+		this.parallelReads = parallelReads;
+		return this;
+	}
+	public int getMaxQueuedSessions() {
+		return maxQueuedSessions;
+	}
+	//statements waiting for connection, split between event loops,
+	//0 does not limit queue
+	public ConnectorOptions setMaxQueuedSessions(int maxQueuedSessions) {
+		if (maxQueuedSessions < 0)
+			throw new IllegalArgumentException("Queue size must not be negative");
+		this.maxQueuedSessions = maxQueuedSessions;
+		return this;
+	}
+	public int getReservedConnections() {
+		return reservedConnections;
+	}
+	//accepting connections of each event loop that Priority.BULK statements
+	//leave to others, so interactive ones do not wait behind bulk loads.
+	//bulk statements use them only when no connection is busy
+	public ConnectorOptions setReservedConnections(int reservedConnections) {
+		if (reservedConnections < 0)
+			throw new IllegalArgumentException("Reserved connections must not be negative");
+		this.reservedConnections = reservedConnections;
+		return this;
+	}
+	public long getReconnectBaseMillis() {
+		return reconnectBaseMillis;
+	}
+	//lost connections are opened again in background, after failed attempt
+	//next one waits base * 2^failures, jittered between half and full delay
+	public ConnectorOptions setReconnectBaseMillis(long reconnectBaseMillis) {
+		if (reconnectBaseMillis < 1)
+			throw new IllegalArgumentException("Reconnect delay must be positive");
+		this.reconnectBaseMillis = reconnectBaseMillis;
+		if (reconnectMaxMillis < reconnectBaseMillis)
+			reconnectMaxMillis = reconnectBaseMillis;
+		return this;
+	}
+	public long getReconnectMaxMillis() {
+		return reconnectMaxMillis;
+	}
+	//longest delay between reconnect attempts
+	public ConnectorOptions setReconnectMaxMillis(long reconnectMaxMillis) {
+		if (reconnectMaxMillis < 1)
+			throw new IllegalArgumentException("Reconnect delay must be positive");
+		this.reconnectMaxMillis = reconnectMaxMillis;
+		if (reconnectBaseMillis > reconnectMaxMillis)
+			reconnectBaseMillis = reconnectMaxMillis;
+		return this;
+	}
+	public boolean getRetryReads() {
+		return retryReads;
+	}
+	//SELECT and SHOW statements on lost connection are sent again on
+	//another one, if their reply did not start yet.
+	//false - they are replied with EXIT_CODE_COMUNICATION_ERROR
+	public ConnectorOptions setRetryReads(boolean retryReads) {
+		this.retryReads = retryReads;
+		return this;
+	}
+	public OverloadPolicy getOverloadPolicy() {
+		return overloadPolicy;
+	}
+	public ConnectorOptions setOverloadPolicy(OverloadPolicy overloadPolicy) {
+		if (overloadPolicy == null)
+			throw new IllegalArgumentException("Overload policy must be set");
+		this.overloadPolicy = overloadPolicy;
+		return this;
+	}
+	public long getRequestTimeoutMillis() {
+		return requestTimeoutMillis;
+	}
+	//statement not replied that long after submit is aborted and replied
+	//with EXIT_CODE_TIMEOUT, its connection takes other statements.
+	//0 waits without limit, submit methods taking timeout override it
+	public ConnectorOptions setRequestTimeoutMillis(long requestTimeoutMillis) {
+		if (requestTimeoutMillis < 0)
+			throw new IllegalArgumentException("Request timeout must not be negative");
+		this.requestTimeoutMillis = requestTimeoutMillis;
+		return this;
+	}
+	public int getCacheSize() {
+		return cacheSize;
+	}
+	//replies of that many SELECT and SHOW statements are kept,
+	//0 disables the cache, see Connector.getCacheStatistics()
+	public ConnectorOptions setCacheSize(int cacheSize) {
+		if (cacheSize < 0)
+			throw new IllegalArgumentException("Cache size must not be negative");
+		this.cacheSize = cacheSize;
+		return this;
+	}
+	public long getCacheTtlMillis() {
+		return cacheTtlMillis;
+	}
+	//cached reply is not used after that long, also bounds staleness
+	//after changes made by other clients
+	public ConnectorOptions setCacheTtlMillis(long cacheTtlMillis) {
+		if (cacheTtlMillis < 1)
+			throw new IllegalArgumentException("Cache ttl must be positive");
+		this.cacheTtlMillis = cacheTtlMillis;
+		return this;
+	}
+	public Balancing getBalancing() {
+		return balancing;
+	}
+	public ConnectorOptions setBalancing(Balancing balancing) {
+		if (balancing == null)
+			throw new IllegalArgumentException("Balancing must be set");
+		this.balancing = balancing;
+		return this;
+	}
+	public PoolListener getPoolListener() {
+		return poolListener;
+	}
+	public ConnectorOptions setPoolListener(PoolListener poolListener) {
+		this.poolListener = poolListener;
+		return this;
+	}
+}
@@ -0,0 +1,83 @@
+package keysql.connector;
+
+//snapshot of Connector state, see Connector.getStatistics()
+public final class ConnectorStatistics {
+	private final int poolSize;
+	private final int idleConnections;
+	private final int pendingConnections;
+	private final int queuedSessions;
+	private final long openedConnections;
+	private final long closedConnections;
+	private final long queueWaitNanos;
+	private final long oldestQueuedNanos;
+	private final long rejectedSessions;
+
+	ConnectorStatistics(int poolSize, int idleConnections, int pendingConnections, int queuedSessions,
+			long openedConnections, long closedConnections) {
+		this(poolSize, idleConnections, pendingConnections, queuedSessions, openedConnections, closedConnections, 0, 0, 0);
+	}
+	ConnectorStatistics(int poolSize, int idleConnections, int pendingConnections, int queuedSessions,
+			long openedConnections, long closedConnections, long queueWaitNanos, long oldestQueuedNanos,
+			long rejectedSessions) {
+		this.poolSize = poolSize;
+		this.idleConnections = idleConnections;
+		this.pendingConnections = pendingConnections;
+		this.queuedSessions = queuedSessions;
+		this.openedConnections = openedConnections;
+		this.closedConnections = closedConnections;
+		this.queueWaitNanos = queueWaitNanos;
+		this.oldestQueuedNanos = oldestQueuedNanos;
+		this.rejectedSessions = rejectedSessions;
+	}
+	ConnectorStatistics add(ConnectorStatistics other) {
+		return new ConnectorStatistics(poolSize + other.poolSize, idleConnections + other.idleConnections,
+				pendingConnections + other.pendingConnections, queuedSessions + other.queuedSessions,
+				openedConnections + other.openedConnections, closedConnections + other.closedConnections,
+				Math.max(queueWaitNanos, other.queueWaitNanos), Math.max(oldestQueuedNanos, other.oldestQueuedNanos),
+				rejectedSessions + other.rejectedSessions);
+	}
+	//established connections
+	public int getPoolSize() {
+		return poolSize;
+	}
+	public int getIdleConnections() {
+		return idleConnections;
+	}
+	public int getBusyConnections() {
+		return poolSize - idleConnections;
+	}
+	//connections being opened
+	public int getPendingConnections() {
+		return pendingConnections;
+	}
+	public int getQueuedSessions() {
+		return queuedSessions;
+	}
+	//total connections opened by pool growth
+	public long getOpenedConnections() {
+		return openedConnections;
+	}
+	//total connections closed as idle or lost
+	public long getClosedConnections() {
+		return closedConnections;
+	}
+	//moving average of time from submit to connection, slowest event loop
+	public double getQueueWaitMillis() {
+		return queueWaitNanos / 1e6;
+	}
+	//time oldest queued statement waits for connection
+	public double getOldestQueuedMillis() {
+		return oldestQueuedNanos / 1e6;
+	}
+	//statements failed or shed with EXIT_CODE_OVERLOADED
+	public long getRejectedSessions() {
+		return rejectedSessions;
+	}
+	@Override
+	public String toString() {
+		return "pool " + poolSize + " (idle " + idleConnections + ", pending " + pendingConnections + "), queued "
+				+ queuedSessions + " (wait " + getQueueWaitMillis() + " ms, oldest " + getOldestQueuedMillis()
+				+ " ms, rejected " + rejectedSessions + "), opened " + openedConnections + ", closed "
+				+ closedConnections;
+	}
+}
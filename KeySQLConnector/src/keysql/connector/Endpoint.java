@@ -0,0 +1,98 @@
+package keysql.connector;
+
+import java.io.IOException;
+
+//one KeySQL server of a Connector with its event loops,
+//replica takes read only statements when Connector routes them
+class Endpoint {
+	private String host;
+	private int port;
+	private final boolean replica;
+	// one client thread per event loop, null when stopped
+	private volatile KeySQLClient[] clients = null;
+
+	Endpoint(String host, int port, boolean replica) {
+		this.host = host;
+		this.port = port;
+		this.replica = replica;
+	}
+
+	String getHost() {
+		return host;
+	}
+
+	int getPort() {
+		return port;
+	}
+
+	boolean isReplica() {
+		return replica;
+	}
+
+	KeySQLClient[] getClients() {
+		return clients;
+	}
+
+	//address is used with next start
+	void setAddress(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	//caller holds Connector lock
+	KeySQLClient[] start(ConnectorOptions options) throws IOException {
+		if (clients != null)
+			return clients;
+		KeySQLClient[] started = new KeySQLClient[options.getEventLoops()];
+		try {
+			for (int i = 0; i < started.length; ++i)
+				started[i] = new KeySQLClient(host, port, options, i);
+		} catch (IOException e) {
+			// threads are not started, their connections are closed here
+			for (KeySQLClient client : started)
+				if (client != null)
+					client.close();
+			throw e;
+		}
+		for (KeySQLClient client : started)
+			client.start();
+		clients = started;
+		return started;
+	}
+
+	//caller holds Connector lock
+	void stop() throws InterruptedException {
+		KeySQLClient[] c = clients;
+		if (c == null)
+			return;
+		for (KeySQLClient client : c)
+			client.stop_running();
+		for (KeySQLClient client : c)
+			client.join();
+		clients = null;
+	}
+
+	int outstandingSessions() {
+		KeySQLClient[] c = clients;
+		int r = 0;
+		if (c != null)
+			for (KeySQLClient client : c)
+				r += client.outstandingSessions();
+		return r;
+	}
+
+	//slowest event loop, so one stalled loop makes the server less preferred
+	long latencyNanos(long now) {
+		KeySQLClient[] c = clients;
+		long r = 0;
+		if (c != null)
+			for (KeySQLClient client : c)
+				r = Math.max(r, client.latencyNanos(now));
+		return r;
+	}
+
+	@Override
+	public String toString() {
+		return (replica ? "replica " : "primary ") + host + ":" + port;
+	}
+}
@@ -0,0 +1,114 @@
+package keysql.connector;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+//finds child of schema object by json field name, ignoring case as
+//name.toUpperCase() lookup does, without allocating: names are hashed
+//with ASCII letters folded to upper case, table is open addressing.
+//non-ASCII names are upper cased and looked up in map.
+//parser gives same String for same field name, so name found before
+//at slot of its String hash code, which String keeps, is tried first
+final class FieldIndex {
+	private static final class Found {
+		final String name;
+		final int index;
+		Found(String name, int index) {
+			this.name = name;
+			this.index = index;
+		}
+	}
+
+	private final String[] names;
+	private final int[] hashes;
+	// index of name + 1 by hash, 0 is free slot
+	private final int[] slots;
+	private final int mask;
+	private final boolean ascii;
+	private final Map<String,Integer> upperCase = new HashMap<>();
+	// written by converting threads, Found is immutable
+	private final Found[] found;
+
+	//upper case names, index of name is its position
+	FieldIndex(Collection<String> upperCaseNames) {
+		names = upperCaseNames.toArray(new String[upperCaseNames.size()]);
+		hashes = new int[names.length];
+		int size = Integer.highestOneBit(Math.max(names.length, 1) * 2) * 2;
+		slots = new int[size];
+		mask = size - 1;
+		found = new Found[size];
+		// locale may upper case ASCII letters to other chars
+		boolean a = "abcdefghijklmnopqrstuvwxyz".toUpperCase().equals("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+		for (int i = 0; i < names.length; ++i) {
+			upperCase.put(names[i], i);
+			int h = hash(names[i]);
+			if (h == -1)
+				a = false;
+			hashes[i] = h;
+			int slot = spread(h) & mask;
+			while (slots[slot] != 0)
+				slot = (slot + 1) & mask;
+			slots[slot] = i + 1;
+		}
+		ascii = a;
+	}
+
+	//index of name, -1 if there is no such name
+	int find(String name) {
+		int slot = spread(name.hashCode()) & mask;
+		Found f = found[slot];
+		if (f != null && f.name.equals(name))
+			return f.index;
+		int i = lookup(name);
+		// slot is not taken over, names that share it would allocate each time
+		if (f == null)
+			found[slot] = new Found(name, i);
+		return i;
+	}
+
+	private int lookup(String name) {
+		int h = ascii ? hash(name) : -1;
+		if (h == -1) {
+			Integer i = upperCase.get(name.toUpperCase());
+			return i == null ? -1 : i;
+		}
+		for (int slot = spread(h) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+			int i = slots[slot] - 1;
+			if (hashes[i] == h && matches(names[i], name))
+				return i;
+		}
+		return -1;
+	}
+
+	// -1 for name that is not ASCII
+	private static int hash(String name) {
+		int h = 0;
+		for (int i = 0, n = name.length(); i < n; ++i) {
+			char c = name.charAt(i);
+			if (c >= 0x80)
+				return -1;
+			h = 31 * h + upper(c);
+		}
+		// -1 means not ASCII
+		return h == -1 ? 0 : h;
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	private static char upper(char c) {
+		return c >= 'a' && c <= 'z' ? (char)(c - ('a' - 'A')) : c;
+	}
+
+	private static boolean matches(String upperCaseName, String name) {
+		int n = name.length();
+		if (upperCaseName.length() != n)
+			return false;
+		for (int i = 0; i < n; ++i)
+			if (upperCaseName.charAt(i) != upper(name.charAt(i)))
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,126 @@
+package keysql.connector;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+//compares field lookup of FieldIndex with previous toUpperCase and TreeMap,
+//and measures conversion of json samples with it,
+//run from directory with json samples: java -cp <classpath> keysql.connector.FieldIndexBenchmark
+final class FieldIndexBenchmark {
+	private static final int WARMUP = 2_000_000;
+	private static final int ITERATIONS = 5_000_000;
+	private static final int CONVERSIONS = 10;
+
+	private interface Operation {
+		long run(int i);
+	}
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static void measure(String name, Operation operation) {
+		long sink = 0;
+		for (int i = 0; i < WARMUP; ++i)
+			sink += operation.run(i);
+		long bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; ++i)
+			sink += operation.run(i);
+		long elapsed = System.nanoTime() - start;
+		bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+		System.out.printf("%-28s %8.1f ns/op %8.1f bytes/op   (%d)%n", name, (double) elapsed / ITERATIONS,
+				(double) bytes / ITERATIONS, sink & 1);
+	}
+
+	// field names of instances as they come in input, parser gives same String for same name
+	private static String[] fieldNames(String json) throws Exception {
+		List<String> r = new ArrayList<>();
+		try (JsonParser p = new ObjectMapper().getFactory().createParser(json)) {
+			JsonToken token;
+			while (r.size() < 10_000 && (token = p.nextToken()) != null) {
+				if (token != JsonToken.FIELD_NAME)
+					continue;
+				JsonStreamContext c = p.getParsingContext().getParent();
+				if (c.inRoot() || c.inArray() && c.getParent().inRoot())
+					r.add(p.getCurrentName());
+			}
+		} catch (JsonParseException e) {
+			// names before malformed instance are enough
+		}
+		return r.toArray(new String[r.size()]);
+	}
+
+	private static void lookup(String name, String schema, String json) throws Exception {
+		TreeMap<String,Integer> childs = new TreeMap<>();
+		Iterator<String> it = new ObjectMapper().readTree(schema).get("properties").fieldNames();
+		while (it.hasNext())
+			childs.put(it.next().toUpperCase(), 0);
+		// index is position in name order, as childs of ComposedObject
+		int position = 0;
+		for (Map.Entry<String,Integer> child : childs.entrySet())
+			child.setValue(position++);
+		FieldIndex index = new FieldIndex(childs.keySet());
+		String[] names = fieldNames(json);
+		int mask = Integer.highestOneBit(names.length) - 1;
+		for (String n : names) {
+			Integer i = childs.get(n.toUpperCase());
+			if (index.find(n) != (i == null ? -1 : i))
+				throw new IllegalStateException("Lookup differs: " + n);
+		}
+		System.out.println(name + ": " + childs.size() + " schema fields");
+		measure("toUpperCase + TreeMap", i -> {
+			Integer r = childs.get(names[i & mask].toUpperCase());
+			return r == null ? -1 : r;
+		});
+		measure("FieldIndex", i -> index.find(names[i & mask]));
+	}
+
+	private static void convert(String name, IKeySQLJson converter, String json) throws Exception {
+		StringBuilder out = new StringBuilder();
+		long instances = 0;
+		for (int i = 0; i < CONVERSIONS; ++i) {
+			out.setLength(0);
+			converter.writeInstances(new StringReader(json), out, ",\n");
+		}
+		long bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+		long start = System.nanoTime();
+		for (int i = 0; i < CONVERSIONS; ++i) {
+			out.setLength(0);
+			instances += converter.writeInstances(new StringReader(json), out, ",\n");
+		}
+		long elapsed = System.nanoTime() - start;
+		bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+		System.out.printf("convert %-20s %8.1f MB/s %8.1f bytes/instance%n", name,
+				(double) json.length() * CONVERSIONS * 1000 / elapsed, (double) bytes / instances);
+	}
+
+	public static void main(String[] args) throws Exception {
+		String moviesSchema = new String(Files.readAllBytes(Paths.get("movies_short_schema.json")),
+				StandardCharsets.UTF_8);
+		String worldBankSchema = new String(Files.readAllBytes(Paths.get("JsonSchemaWorldBank.json")),
+				StandardCharsets.UTF_8);
+		String movies = new String(Files.readAllBytes(Paths.get("movies_short.json")), StandardCharsets.UTF_8);
+		String worldBank = new String(Files.readAllBytes(Paths.get("world_bank.json")), StandardCharsets.UTF_8);
+		lookup("movies_short.json", moviesSchema, movies);
+		lookup("world_bank.json", worldBankSchema, worldBank);
+		Map<String, String> aliases = new HashMap<>();
+		aliases.put("CAST", "ACTOR");
+		convert("movies_short.json", new KeySQLJson(moviesSchema, "movie_short", aliases), movies);
+		convert("world_bank.json", new KeySQLJson(worldBankSchema, "world_bank"), worldBank);
+	}
+}
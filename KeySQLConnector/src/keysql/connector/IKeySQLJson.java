@@ -1,6 +1,12 @@
 package keysql.connector;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 public interface IKeySQLJson {
 	public static String createCatalogStatement(final String catalogName) {
@@ -15,4 +21,27 @@ public interface IKeySQLJson {
 	//generate insert statement from json string "{...},{...},..."
 	//return insert statement or null, if all json instances do not match schema
 	public String insertInstancesStatement(final String jsonInstances, final String storeName);
+	//write insert statement for json instances read from input to out
+	//return number of instances written, nothing is written if it is 0
+	public long insertInstancesStatement(final Reader jsonInstances, final String storeName, final Appendable out)
+			throws IOException;
+	//write instances "{...}" converted from input to out with separator between them,
+	//out gets only whole instances, one not matching schema is rolled back
+	//return number of instances written
+	public long writeInstances(final Reader jsonInstances, final Appendable out, final String separator)
+			throws IOException;
+	//instances are encoded as UTF-8
+	public long writeInstances(final Reader jsonInstances, final OutputStream out, final String separator)
+			throws IOException;
+	//pass instances "{...}" converted from input to consumer one by one
+	//return number of converted instances
+	public long convertInstances(final Reader jsonInstances, final Consumer<String> instances) throws IOException;
+	public long convertInstances(final InputStream jsonInstances, final Consumer<String> instances) throws IOException;
+	//input is cut into chunks of whole instances, pool workers convert them
+	//ordered - consumer is called on caller thread in input order, otherwise
+	//from workers as chunks are done, so it must be thread safe
+	public default long convertInstances(final Reader jsonInstances, final Consumer<String> instances,
+			final ForkJoinPool pool, final boolean ordered) throws IOException {
+		return new ParallelConversion(this, pool, ordered).convert(jsonInstances, instances);
+	}
 }
@@ -3,44 +3,163 @@ package keysql.connector;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
+import java.net.ProtocolException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 class KeySQLClient extends Thread {
-	private static final int DEFAULT_POOL_SIZE = 4;
 	private static final int SUCCESS_SIZE = 4;
-	private static final int WAIT_TIME = 20;
 	private static final int REPEAT_TIMES = 4;
-	private static final int READ_BUFFER_SIZE = 8192;
-	private static final String CLIENT_VERSION = "keysql 0.1\n";
+	private static final int READ_BUFFER_SIZE = 65536;
+	// new latency sample weighs 1/8 in average
+	private static final int LATENCY_WEIGHT = 8;
+	private static final long LATENCY_DECAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+	// normal statements dispatched for each bulk one while both wait
+	private static final int NORMAL_PER_BULK = 4;
+	private static final byte[] CLIENT_VERSION = "keysql 0.1\n".getBytes(StandardCharsets.US_ASCII);
+	// longest backoff is base << MAX_BACKOFF_SHIFT, capped by ConnectorOptions
+	private static final int MAX_BACKOFF_SHIFT = 20;
 	private final AtomicBoolean running;
-	private final AtomicBoolean closeChannels;
 	private InetSocketAddress socketAddress;
-	private final ConcurrentLinkedQueue<StatementSession> sessions;
+	// address given to reconnect, taken by client thread
+	private volatile InetSocketAddress nextAddress;
+	// queued sessions by Priority ordinal, each first in first out
+	private final List<Queue<StatementSession>> lanes;
+	// reads of lost connections sent again ahead of queued sessions,
+	// not counted in queued
+	private final ConcurrentLinkedQueue<StatementSession> retry;
+	// normal sessions dispatched since last bulk one, client thread only
+	private int normalRun = 0;
+	// accepting connections bulk sessions leave to others
+	private final int reservedConnections;
+	// paused connections whose stream reader caught up
+	private final ConcurrentLinkedQueue<KeySQLConnection> resumed;
+	// sessions whose future was cancelled, each is withdrawn once
+	private final ConcurrentLinkedQueue<StatementSession> cancelled;
+	// sessions with deadline, moved to deadlines by client thread
+	private final ConcurrentLinkedQueue<StatementSession> timed;
+	// earliest deadline first, finished sessions are dropped when they come up
+	private final PriorityQueue<StatementSession> deadlines;
 	private final Selector selector;
-	private final Queue<SocketChannel> openConnections;
-	private final Map<SocketChannel, StatementSession> dataMapper;
+	// reads are handled one by one on client thread, so all connections share it
+	private final ByteBuffer readBuffer;
+	// connections accepting sessions, most recently released last
+	private final Deque<KeySQLConnection> openConnections;
+	// connections in connect or handshake, oldest first
+	private final Deque<KeySQLConnection> connecting;
+	private final ConnectorOptions options;
+	// sessions in flight per connection, 1 - no pipelining
+	private final int pipelineDepth;
+	// this client's shard of pool, see ConnectorOptions.setEventLoops
+	private final int minPoolSize;
+	private final int maxPoolSize;
+	private final long growWaitNanos;
+	private final long idleTimeoutNanos;
+	private final long connectTimeoutNanos;
+	private final long reconnectBaseNanos;
+	private final long reconnectMaxNanos;
+	// connect attempts failed in a row, next one not before reconnectAt,
+	// client thread only
+	private int connectFailures = 0;
+	private long reconnectAt = 0;
+	// pool state, written by client thread only
+	private volatile int poolSize = 0;
+	private volatile int busyConnections = 0;
+	private volatile int pendingConnections = 0;
+	private volatile long openedConnections = 0;
+	private volatile long closedConnections = 0;
+	// queued and in flight sessions, used by Connector to balance load
+	private final AtomicInteger outstanding;
+	// sessions waiting for connection, at most maxQueued if bounded
+	private final AtomicInteger queued;
+	private final int maxQueued;
+	// submitting threads waiting for room in queue, see ConnectorOptions.OverloadPolicy
+	private final AtomicInteger blocked;
+	private final Object room = new Object();
+	private final AtomicLong rejected;
+	// moving average of time from submit to dispatch, written by client thread only
+	private volatile long queueWaitNanos = 0;
+	// moving average of time from submit to reply, counts failed session
+	// as connect timeout, written by client thread only
+	private volatile long latencyNanos = 0;
+	private volatile long latencyUpdated = 0;
+	// last failed session, 0 after reply. kept apart from latency average,
+	// so one failure does not weigh in it for many replies
+	private volatile long failedAt = 0;
 
-	KeySQLClient(String host, short port, ConcurrentLinkedQueue<StatementSession> sessions)
+	KeySQLClient(String host, int port, ConnectorOptions options, int shard)
 			throws IOException, ConnectException {
+		super("keysql-client-" + shard);
 		running = new AtomicBoolean(false);
-		closeChannels = new AtomicBoolean(false);
+		outstanding = new AtomicInteger(0);
+		queued = new AtomicInteger(0);
+		blocked = new AtomicInteger(0);
+		rejected = new AtomicLong(0);
+		latencyUpdated = System.nanoTime();
 		socketAddress = new InetSocketAddress(host, port);
-		this.sessions = sessions;
-		this.dataMapper = new HashMap<>();
+		this.lanes = newLanes();
+		this.retry = new ConcurrentLinkedQueue<>();
+		this.resumed = new ConcurrentLinkedQueue<>();
+		this.timed = new ConcurrentLinkedQueue<>();
+		this.cancelled = new ConcurrentLinkedQueue<>();
+		this.deadlines = new PriorityQueue<>((a, b) -> Long.signum(a.getDeadline() - b.getDeadline()));
+		this.options = options;
+		this.minPoolSize = shardSize(options.getMinPoolSize(), options.getEventLoops(), shard);
+		this.maxPoolSize = Math.max(minPoolSize, shardSize(options.getMaxPoolSize(), options.getEventLoops(), shard));
+		this.growWaitNanos = TimeUnit.MILLISECONDS.toNanos(options.getGrowWaitMillis());
+		this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(options.getIdleTimeoutMillis());
+		this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(options.getConnectTimeoutMillis());
+		this.reconnectBaseNanos = TimeUnit.MILLISECONDS.toNanos(options.getReconnectBaseMillis());
+		this.reconnectMaxNanos = TimeUnit.MILLISECONDS.toNanos(options.getReconnectMaxMillis());
+		this.pipelineDepth = options.getPipelineDepth();
+		this.reservedConnections = options.getReservedConnections();
+		this.maxQueued = options.getMaxQueuedSessions() == 0 ? 0
+				: shardSize(options.getMaxQueuedSessions(), options.getEventLoops(), shard);
 		selector = initiateSelector();
-		openConnections = new ArrayDeque<>(DEFAULT_POOL_SIZE);
-		startPool();
+		readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		openConnections = new ArrayDeque<>(maxPoolSize);
+		connecting = new ArrayDeque<>();
+		try {
+			startPool();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	KeySQLClient(String host, int port, ConnectorOptions options)
+			throws IOException, ConnectException {
+		this(host, port, options, 0);
+	}
+
+	private static List<Queue<StatementSession>> newLanes() {
+		List<Queue<StatementSession>> r = new ArrayList<>(Priority.values().length);
+		for (int i = 0; i < Priority.values().length; ++i)
+			r.add(new ConcurrentLinkedQueue<>());
+		return r;
+	}
+
+	// split pool size between shards, each shard has one connection at least
+	private static int shardSize(int size, int shards, int shard) {
+		return Math.max(1, size / shards + (shard < size % shards ? 1 : 0));
 	}
 
 	@Override
@@ -51,53 +170,288 @@ class KeySQLClient extends Thread {
 
 	public void stop_running() {
 		running.set(false);
+		selector.wakeup();
+		synchronized (room) {
+			room.notifyAll();
+		}
 	}
 
-	public int activeConnections() {
-		return dataMapper.size();
+	// called by submitting threads, selector thread blocked
+	// in select() is woken to dispatch session immediately
+	public void submit(StatementSession session) {
+		if (!admit(1, session.getPriority())) {
+			reject(session);
+			return;
+		}
+		outstanding.incrementAndGet();
+		if (session.isTimed())
+			timed.add(session);
+		lanes.get(session.getPriority().ordinal()).add(session);
+		watchCancel(session.cancellable(), session, null);
+		if (running.get()) {
+			selector.wakeup();
+		} else {
+			// stopped client, queue may have been drained already
+			failQueued();
+		}
 	}
 
-	public int freeConnections() {
-		return openConnections.size();
+	// batch is queued at once with one wakeup
+	public void submit(List<StatementSession> batch) {
+		// batch larger than queue would never fit
+		if ((maxQueued != 0 && batch.size() > maxQueued) || !admit(batch.size(), batch.get(0).getPriority())) {
+			for (StatementSession session : batch)
+				reject(session);
+			return;
+		}
+		outstanding.addAndGet(batch.size());
+		for (StatementSession session : batch)
+			if (session.isTimed())
+				timed.add(session);
+		for (StatementSession session : batch)
+			lanes.get(session.getPriority().ordinal()).add(session);
+		// sessions of one StatementBatch share its future
+		for (int i = 0; i < batch.size();) {
+			CompletableFuture<?> future = batch.get(i).cancellable();
+			int from = i;
+			while (i < batch.size() && batch.get(i).cancellable() == future)
+				++i;
+			watchCancel(future, null, batch.subList(from, i));
+		}
+		if (running.get()) {
+			selector.wakeup();
+		} else {
+			failQueued();
+		}
 	}
 
-	public boolean reconnect(String host, short port) {
-		freeChannels();
-		this.socketAddress = new InetSocketAddress(host, port);
+	// reserve room for n sessions by overload policy, false if they are rejected.
+	// client threads never wait: statements chained by scripts are admitted
+	// over the limit, as their script was admitted already
+	private boolean admit(int n, Priority priority) {
+		if (maxQueued == 0 || Thread.currentThread() instanceof KeySQLClient) {
+			queued.addAndGet(n);
+			return true;
+		}
+		for (;;) {
+			int q = queued.get();
+			if (q + n <= maxQueued) {
+				if (queued.compareAndSet(q, q + n))
+					return true;
+				continue;
+			}
+			switch (options.getOverloadPolicy()) {
+			case FAIL:
+				return false;
+			case SHED:
+				if (!shed(priority)) {
+					// all queued sessions have higher priority
+					int lowest = lowestQueued();
+					if (lowest >= 0 && lowest < priority.ordinal())
+						return false;
+					Thread.yield();
+				}
+				break;
+			default:
+				if (!running.get()) {
+					// stopped client fails session
+					queued.addAndGet(n);
+					return true;
+				}
+				if (!waitForRoom(n))
+					return false;
+			}
+		}
+	}
+
+	// false if interrupted, interrupt status is kept
+	private boolean waitForRoom(int n) {
+		blocked.incrementAndGet();
 		try {
-			Thread.sleep(1000);
-			closeChannels.set(false);
-			for (int i = 0; i < DEFAULT_POOL_SIZE; ++i) {
-				initiateConnection();
-				System.out.println("added new channel");
+			synchronized (room) {
+				while (queued.get() + n > maxQueued && running.get())
+					room.wait();
 			}
-			Thread.sleep(5000);
-			return !dataMapper.isEmpty();
+			return true;
 		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 			return false;
-		} catch (IOException e) {
-			// Logger
-			return false;
+		} finally {
+			blocked.decrementAndGet();
+		}
+	}
+
+	// oldest session of lowest lane not above priority makes room for
+	// new one, false if there is none
+	private boolean shed(Priority priority) {
+		for (int lane = lanes.size() - 1; lane >= priority.ordinal(); --lane) {
+			StatementSession session = lanes.get(lane).poll();
+			if (session != null) {
+				dequeued();
+				reject(session);
+				outstanding.decrementAndGet();
+				return true;
+			}
 		}
+		return false;
+	}
+
+	// ordinal of lowest non empty lane, -1 if all are empty
+	private int lowestQueued() {
+		for (int lane = lanes.size() - 1; lane >= 0; --lane)
+			if (!lanes.get(lane).isEmpty())
+				return lane;
+		return -1;
+	}
+
+	private void reject(StatementSession session) {
+		rejected.incrementAndGet();
+		session.setMessageHeader(new MessageHeader(ReplyMessage.EXIT_CODE_OVERLOADED));
+		session.setPromise();
+	}
+
+	// any queued session, highest lane first
+	private StatementSession takeQueued() {
+		for (Queue<StatementSession> lane : lanes) {
+			StatementSession session = lane.poll();
+			if (session != null) {
+				dequeued();
+				return session;
+			}
+		}
+		return null;
+	}
+
+	// next session to dispatch: interactive first, then normal and bulk
+	// by weight, bulk only if allowed
+	private StatementSession nextQueued(boolean bulk) {
+		StatementSession session = lanes.get(Priority.INTERACTIVE.ordinal()).poll();
+		if (session == null && bulk && normalRun >= NORMAL_PER_BULK)
+			session = lanes.get(Priority.BULK.ordinal()).poll();
+		if (session == null) {
+			session = lanes.get(Priority.NORMAL.ordinal()).poll();
+			if (session != null)
+				++normalRun;
+		}
+		if (session == null && bulk)
+			session = lanes.get(Priority.BULK.ordinal()).poll();
+		if (session == null)
+			return null;
+		if (session.getPriority() == Priority.BULK)
+			normalRun = 0;
+		dequeued();
+		return session;
+	}
+
+	// longest waiting session of all lanes
+	private StatementSession oldestQueued() {
+		StatementSession r = null;
+		for (Queue<StatementSession> lane : lanes) {
+			StatementSession head = lane.peek();
+			if (head != null && (r == null || head.getQueuedTime() - r.getQueuedTime() < 0))
+				r = head;
+		}
+		return r;
+	}
+
+	// session left queue, submitting threads waiting for room are woken
+	private void dequeued() {
+		queued.decrementAndGet();
+		if (blocked.get() > 0) {
+			synchronized (room) {
+				room.notifyAll();
+			}
+		}
+	}
+
+	// cancelled future queues its sessions for client thread, no scanning needed
+	private void watchCancel(CompletableFuture<?> future, StatementSession session, List<StatementSession> batch) {
+		future.whenComplete((r, e) -> {
+			if (!future.isCancelled())
+				return;
+			if (session != null)
+				cancelled.add(session);
+			else
+				cancelled.addAll(batch);
+			selector.wakeup();
+		});
+	}
+
+	// called by stream reader, connection reads again on next loop pass
+	void resume(KeySQLConnection connection) {
+		resumed.add(connection);
+		selector.wakeup();
+	}
+
+	public int outstandingSessions() {
+		return outstanding.get();
+	}
+
+	// latency average halves for each second without replies,
+	// so endpoint that was slow or down is tried again. failure since
+	// last reply counts as connect timeout, halving the same way
+	long latencyNanos(long now) {
+		long r = decayed(latencyNanos, now - latencyUpdated);
+		long failed = failedAt;
+		return failed == 0 ? r : Math.max(r, decayed(connectTimeoutNanos, now - failed));
+	}
+
+	private static long decayed(long nanos, long elapsed) {
+		long idle = elapsed / LATENCY_DECAY_NANOS;
+		if (idle <= 0)
+			return nanos;
+		return idle >= 63 ? 0 : nanos >> idle;
+	}
+
+	public int activeConnections() {
+		return busyConnections;
+	}
+
+	public int freeConnections() {
+		return poolSize - busyConnections;
+	}
+
+	public ConnectorStatistics getStatistics() {
+		int size = poolSize;
+		StatementSession head = oldestQueued();
+		long oldest = head == null ? 0 : Math.max(0, System.nanoTime() - head.getQueuedTime());
+		return new ConnectorStatistics(size, Math.max(0, size - busyConnections), pendingConnections,
+				Math.max(0, queued.get()), openedConnections, closedConnections, queueWaitNanos, oldest, rejected.get());
+	}
+
+	// move pool to other address without waiting: client thread drops
+	// connections as lost and opens new ones in background.
+	// false if client is stopped
+	public boolean reconnect(String host, short port) {
+		nextAddress = new InetSocketAddress(host, Short.toUnsignedInt(port));
+		selector.wakeup();
+		return running.get();
 	}
 
 	@Override
 	public void run() {
-		int fail_times = 0;
 		while (running.get()) {
-			StatementSession session = null;
 			try {
-				checkCancelled();
-				if (!sessions.isEmpty()) {
-					if (openConnections.isEmpty()) {
-						session = sessions.peek();
-						initiateConnection();
-					} else {
-						SocketChannel channel = openConnections.poll();
-						dataMapper.put(channel, sessions.poll());
-					}
+				InetSocketAddress address = nextAddress;
+				if (address != null) {
+					nextAddress = null;
+					moveTo(address);
 				}
-				this.selector.select();
+				abortCancelled();
+				resumeReading();
+				expireStatements(System.nanoTime());
+				dispatch();
+				failUnreachable();
+				long now = System.nanoTime();
+				StatementSession session = retry.peek();
+				if (session == null)
+					session = oldestQueued();
+				expireConnecting(now);
+				replenish(now);
+				growPool(session, now);
+				shrinkPool(now);
+				// blocks until socket event, pool timer or wakeup() from submitting thread
+				this.selector.select(selectTimeout(session, now));
 				// work on selected keys
 				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
 				while (keys.hasNext()) {
@@ -108,76 +462,505 @@ class KeySQLClient extends Thread {
 					if (!key.isValid()) {
 						continue;
 					}
-					if (closeChannels.get()) {
-						SocketChannel channel = (SocketChannel) key.channel();
-						channel.close();
-						key.cancel();
-						System.out.println("Channel closed");
+					KeySQLConnection connection = (KeySQLConnection) key.attachment();
+					if (connection.state != KeySQLConnection.State.READY) {
+						try {
+							if (establishConnection(connection)) {
+								++poolSize;
+								release(connection);
+							}
+						} catch (IOException e) {
+							// failed connection backs off, other keys are handled
+						}
 						continue;
 					}
-					if (key.isConnectable()) {
-						if (establishConnection(key)) {
-							SocketChannel channel = (SocketChannel) key.channel();
-							openConnections.add(channel);
-							dataMapper.put(channel, null);
+					try {
+						if (key.isReadable()) {
+							readData(connection);
 						}
-					} else if (key.isReadable()) {
-						readData(key);
-					} else if (key.isWritable()) {
-						writeData(key);
+						if (key.isValid() && key.isWritable()) {
+							writeData(connection);
+						}
+					} catch (RuntimeException e) {
+						// failure on one connection does not stop client thread
+						if (key.isValid())
+							rejectConnection(connection);
 					}
 				}
-				if (dataMapper.isEmpty()) {
-					Thread.sleep(100);
-				}
-				fail_times = 0;
 			} catch (IOException e) {
-				if (++fail_times >= REPEAT_TIMES && session != null) {
-					session = sessions.poll();
-					session.setMessageHeader(new MessageHeader(ReplyMessage.EXIT_CODE_COMUNICATION_ERROR));
-					session.setPromise();
-				}
 				// e.printStackTrace();
 				// Logger.write("Exception: " + e.getMessage(), LogType.CLIENT);
-			} catch (InterruptedException e) {
-				// Logger.write("KeySQL client thread interrupted.", LogType.CLIENT);
 			}
 		}
-		freeChannels();
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() != null)
+				failSessions((KeySQLConnection) key.attachment());
+		}
+		close();
+		failQueued();
+	}
+
+	private void failSession(StatementSession session) {
+		session.setMessageHeader(new MessageHeader(ReplyMessage.EXIT_CODE_COMUNICATION_ERROR));
+		session.setPromise();
+		outstanding.decrementAndGet();
+		failedAt = System.nanoTime() | 1;
+	}
+
+	// first sample weighs as any other, so one slow reply of new
+	// endpoint does not set its average
+	private void recordLatency(long sample, long now) {
+		long average = decayed(latencyNanos, now - latencyUpdated);
+		latencyNanos = average + (sample - average) / LATENCY_WEIGHT;
+		latencyUpdated = now;
+	}
+
+	private void failSessions(KeySQLConnection connection) {
+		for (Iterator<StatementSession> it = connection.pending(); it.hasNext();) {
+			failSession(it.next());
+			it.remove();
+		}
+		connection.writeQueue().clear();
+	}
+
+	private void failQueued() {
+		StatementSession session;
+		while ((session = retry.poll()) != null)
+			failSession(session);
+		while ((session = takeQueued()) != null)
+			failSession(session);
+	}
+
+	// server refused REPEAT_TIMES connects in a row and pool is empty:
+	// waiting statements fail instead of waiting for it, new ones fail
+	// until a probe connects
+	private void failUnreachable() {
+		if (poolSize == 0 && connectFailures >= REPEAT_TIMES)
+			failQueued();
+	}
+
+	// fail statements past deadline: queued one is dropped, written one
+	// is aborted, and its connection takes other statements right away
+	private void expireStatements(long now) {
+		StatementSession session;
+		while ((session = timed.poll()) != null)
+			deadlines.add(session);
+		// replied sessions wait for their deadline, drop them when they outnumber live ones
+		if (deadlines.size() > 2 * outstanding.get() + 64)
+			deadlines.removeIf(StatementSession::isFinished);
+		while ((session = deadlines.peek()) != null) {
+			if (session.isFinished()) {
+				deadlines.poll();
+				continue;
+			}
+			if (session.getDeadline() - now > 0)
+				break;
+			deadlines.poll();
+			if (!withdraw(session))
+				continue;
+			session.setMessageHeader(new MessageHeader(ReplyMessage.EXIT_CODE_TIMEOUT));
+			session.setPromise();
+			outstanding.decrementAndGet();
+			recordLatency(now - session.getQueuedTime(), now);
+		}
+	}
+
+	// sessions of cancelled futures, their promise stays cancelled
+	private void abortCancelled() {
+		StatementSession session;
+		while ((session = cancelled.poll()) != null) {
+			if (session.isFinished() || !withdraw(session))
+				continue;
+			session.setPromise();
+			outstanding.decrementAndGet();
+		}
+	}
+
+	// session leaves client without reply: queued one is dropped, written one
+	// is aborted and its connection takes other statements right away.
+	// false if session is not queued, it was failed with its connection
+	private boolean withdraw(StatementSession session) {
+		KeySQLConnection connection = session.getConnection();
+		if (connection == null) {
+			if (retry.remove(session))
+				return true;
+			if (!lanes.get(session.getPriority().ordinal()).remove(session))
+				return false;
+			dequeued();
+			return true;
+		}
+		if (!connection.key.isValid())
+			return true;
+		// connection paused for this stream reads again
+		if (connection.reading() == session)
+			connection.paused = false;
+		if (connection.abandon(session))
+			connection.writeQueue().add(StatementSession.abort(session));
+		if (session.getStream() != null)
+			session.getStream().detach();
+		left(connection);
+		connection.interest(!connection.writeQueue().isEmpty() || !connection.writer.idle());
+		return true;
+	}
+
+	// streamed reply waits for reader, other replies on connection wait too
+	private void pause(KeySQLConnection connection) {
+		connection.paused = true;
+		connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+	}
+
+	private void resumeReading() {
+		KeySQLConnection connection;
+		while ((connection = resumed.poll()) != null) {
+			connection.paused = false;
+			if (connection.key.isValid())
+				connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_READ);
+		}
+	}
+
+	// assign queued sessions to connections, in pipelined mode connection
+	// takes sessions until pipeline depth is reached
+	private void dispatch() {
+		long now = 0;
+		while (!openConnections.isEmpty()) {
+			StatementSession session = retry.poll();
+			if (session == null) {
+				// bulk statements leave reserved connections to others, unless pool is idle
+				session = nextQueued(openConnections.size() > reservedConnections || busyConnections == 0);
+				if (session == null)
+					break;
+				if (now == 0)
+					now = System.nanoTime();
+				queueWaitNanos += (now - session.getQueuedTime() - queueWaitNanos) / LATENCY_WEIGHT;
+			}
+			// most recently used connection, so least used ones can expire
+			KeySQLConnection connection = openConnections.pollLast();
+			connection.accepting = false;
+			if (connection.idle())
+				++busyConnections;
+			connection.add(session);
+			session.setConnection(connection);
+			if (session.getStream() != null)
+				session.getStream().attach(this, connection);
+			if (connection.inFlight() < pipelineDepth)
+				accept(connection);
+			connection.interest(true);
+		}
 	}
 
 	private void startPool() throws IOException, ConnectException {
-		for (int i = 0; i < DEFAULT_POOL_SIZE; ++i) {
+		for (int i = 0; i < minPoolSize; ++i) {
 			initiateConnection();
 		}
-		if (startPool(DEFAULT_POOL_SIZE) == 0) {
-			throw new ConnectException();
+		startPool(minPoolSize);
+	}
+
+	// close connections not established in connect timeout, they back off
+	// like refused ones. return number of closed connections
+	private int expireConnecting(long now) {
+		int expired = 0;
+		KeySQLConnection connection;
+		while ((connection = connecting.peekFirst()) != null) {
+			if (connection.state == KeySQLConnection.State.READY || !connection.key.isValid()) {
+				connecting.pollFirst();
+			} else if (connection.deadline - now <= 0) {
+				connecting.pollFirst();
+				failConnection(connection);
+				++expired;
+			} else {
+				break;
+			}
+		}
+		return expired;
+	}
+
+	// open connections for queued sessions, if queue depth or
+	// wait time of oldest session reached thresholds
+	private void growPool(StatementSession head, long now) {
+		if (head == null)
+			return;
+		int capacity = Math.min(maxPoolSize - poolSize - pendingConnections, connectAllowance(now));
+		if (capacity <= 0)
+			return;
+		int limit = Math.max(options.getGrowQueueDepth(), pendingConnections + capacity);
+		int waiting = Math.min(queued.get() + retry.size(), limit);
+		// sessions not covered by connections being opened
+		int need = Math.min(waiting - pendingConnections, capacity);
+		if (need <= 0)
+			return;
+		PoolListener.Reason reason;
+		if (waiting >= options.getGrowQueueDepth())
+			reason = PoolListener.Reason.QUEUE_DEPTH;
+		else if (now - head.getQueuedTime() >= growWaitNanos)
+			reason = PoolListener.Reason.WAIT_TIME;
+		else
+			return;
+		notifyListener(need, reason);
+		try {
+			for (int i = 0; i < need; ++i) {
+				initiateConnection();
+				++openedConnections;
+			}
+		} catch (IOException e) {
+			backOff(now);
+		}
+	}
+
+	// open lost connections again up to min pool size, in background
+	private void replenish(long now) {
+		int need = Math.min(minPoolSize - poolSize - pendingConnections, connectAllowance(now));
+		if (need <= 0)
+			return;
+		notifyListener(need, PoolListener.Reason.RECONNECT);
+		try {
+			for (int i = 0; i < need; ++i) {
+				initiateConnection();
+				++openedConnections;
+			}
+		} catch (IOException e) {
+			backOff(now);
+		}
+	}
+
+	// connections that may be opened now: any number while server accepts
+	// them, after failure one probe when backoff delay has passed
+	private int connectAllowance(long now) {
+		if (connectFailures == 0)
+			return Integer.MAX_VALUE;
+		return pendingConnections > 0 || now - reconnectAt < 0 ? 0 : 1;
+	}
+
+	// delay grows as base * 2^failures up to max, and is jittered between
+	// half and full, so clients that lost one server do not return at once
+	private void backOff(long now) {
+		long delay = Math.min(reconnectMaxNanos, reconnectBaseNanos << Math.min(connectFailures, MAX_BACKOFF_SHIFT));
+		++connectFailures;
+		reconnectAt = now + delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	// close connections idle longer than idle timeout down to min pool size
+	private void shrinkPool(long now) {
+		while (poolSize > minPoolSize && !openConnections.isEmpty()) {
+			KeySQLConnection connection = openConnections.peekFirst();
+			if (!connection.idle() || now - connection.idleSince < idleTimeoutNanos)
+				break;
+			openConnections.pollFirst();
+			connection.accepting = false;
+			notifyListener(-1, PoolListener.Reason.IDLE_TIMEOUT);
+			closeConnection(connection);
+		}
+	}
+
+	// 0 - wait for events only
+	private long selectTimeout(StatementSession head, long now) {
+		long timeout = Long.MAX_VALUE;
+		KeySQLConnection opening = connecting.peekFirst();
+		if (opening != null) {
+			timeout = opening.deadline - now;
+		}
+		KeySQLConnection oldest = openConnections.peekFirst();
+		if (poolSize > minPoolSize && oldest != null && oldest.idle()) {
+			timeout = Math.min(timeout, oldest.idleSince + idleTimeoutNanos - now);
+		}
+		if (head != null && poolSize + pendingConnections < maxPoolSize) {
+			timeout = Math.min(timeout, head.getQueuedTime() + growWaitNanos - now);
+		}
+		if (connectFailures > 0 && pendingConnections == 0
+				&& (poolSize < minPoolSize || head != null && poolSize < maxPoolSize)) {
+			timeout = Math.min(timeout, reconnectAt - now);
+		}
+		StatementSession expiring = deadlines.peek();
+		if (expiring != null) {
+			timeout = Math.min(timeout, expiring.getDeadline() - now);
+		}
+		if (timeout == Long.MAX_VALUE)
+			return 0;
+		return Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeout));
+	}
+
+	private void notifyListener(int change, PoolListener.Reason reason) {
+		PoolListener listener = options.getPoolListener();
+		if (listener != null)
+			listener.poolResized(poolSize, change, reason);
+	}
+
+	// return established connection to pool, idle connections are watched
+	// for reading to notice when server closes them
+	private void release(KeySQLConnection connection) {
+		connection.idleSince = System.nanoTime();
+		accept(connection);
+		connection.interest(false);
+	}
+
+	private void accept(KeySQLConnection connection) {
+		openConnections.addLast(connection);
+		connection.accepting = true;
+	}
+
+	// reply of session was read
+	private void replied(KeySQLConnection connection, StatementSession session) {
+		session.complete();
+		outstanding.decrementAndGet();
+		long now = System.nanoTime();
+		recordLatency(now - session.getQueuedTime(), now);
+		failedAt = 0;
+		left(connection);
+	}
+
+	// session left busy connection by reply or timeout
+	private void left(KeySQLConnection connection) {
+		if (!connection.accepting && connection.inFlight() < pipelineDepth) {
+			// was full, accepts sessions again
+			accept(connection);
+		}
+		if (connection.idle()) {
+			--busyConnections;
+			connection.idleSince = System.nanoTime();
+		}
+	}
+
+	private void closeConnection(KeySQLConnection connection) {
+		--poolSize;
+		++closedConnections;
+		try {
+			connection.channel.close();
+		} catch (IOException e) {
+			// Logger.write("Failed to close channel normally.", LogType.CLIENT);
+		}
+		connection.key.cancel();
+	}
+
+	// connection closed by server or failed
+	private void dropConnection(KeySQLConnection connection) {
+		if (!connection.idle()) {
+			--busyConnections;
+			retrySessions(connection);
+		}
+		openConnections.remove(connection);
+		connection.accepting = false;
+		notifyListener(-1, PoolListener.Reason.CONNECTION_LOST);
+		closeConnection(connection);
+	}
+
+	// malformed reply: connection is closed, its sessions fail
+	// instead of being sent again
+	private void rejectConnection(KeySQLConnection connection) {
+		if (!connection.idle())
+			--busyConnections;
+		failSessions(connection);
+		openConnections.remove(connection);
+		connection.accepting = false;
+		notifyListener(-1, PoolListener.Reason.CONNECTION_LOST);
+		closeConnection(connection);
+	}
+
+	// sessions of lost connection: reads whose reply did not start are sent
+	// again ahead of queued sessions, others fail
+	private void retrySessions(KeySQLConnection connection) {
+		StatementSession reading = connection.reading();
+		for (Iterator<StatementSession> it = connection.pending(); it.hasNext();) {
+			StatementSession session = it.next();
+			it.remove();
+			if (session != reading && retryable(session)) {
+				if (session.getStream() != null)
+					session.getStream().detach();
+				session.requeue();
+				retry.add(session);
+			} else {
+				failSession(session);
+			}
+		}
+		connection.writeQueue().clear();
+	}
+
+	// SELECT and SHOW give same reply when sent twice
+	private boolean retryable(StatementSession session) {
+		return options.getRetryReads() && running.get() && session.getRetries() < REPEAT_TIMES
+				&& !session.promiseCancelled() && ConnectorHelper.isReadOnly(session.getRequest());
+	}
+
+	// reconnect(): connections to old address are dropped as lost,
+	// new ones are opened right away
+	private void moveTo(InetSocketAddress address) {
+		socketAddress = address;
+		for (SelectionKey key : new ArrayList<>(selector.keys())) {
+			KeySQLConnection connection = (KeySQLConnection) key.attachment();
+			if (connection == null || !key.isValid())
+				continue;
+			if (connection.state == KeySQLConnection.State.READY)
+				dropConnection(connection);
+			else
+				failConnection(connection);
 		}
+		connecting.clear();
+		connectFailures = 0;
 	}
 
-	private void freeChannels() {
-		closeChannels.set(true);
-		dataMapper.clear();
+	private void closeKeys() {
+		for (SelectionKey key : selector.keys()) {
+			try {
+				key.channel().close();
+			} catch (IOException e) {
+			}
+			key.cancel();
+		}
 		openConnections.clear();
+		connecting.clear();
+		poolSize = 0;
+		busyConnections = 0;
+		pendingConnections = 0;
+	}
+
+	// connections and selector, also of client which thread was not started
+	void close() {
+		closeKeys();
+		try {
+			selector.close();
+		} catch (IOException e) {
+		}
 	}
 
 	private Selector initiateSelector() throws IOException {
 		return SelectorProvider.provider().openSelector();
 	}
 
-	private SocketChannel initiateConnection() throws IOException {
-		SocketChannel connection = SocketChannel.open();
-		connection.configureBlocking(false);
-		connection.connect(socketAddress);
-		connection.register(selector, SelectionKey.OP_CONNECT);
+	// start non blocking connect, connection is established
+	// by client loop through establishConnection
+	private KeySQLConnection initiateConnection() throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		SelectionKey key;
+		try {
+			channel.configureBlocking(false);
+			channel.connect(socketAddress);
+			key = channel.register(selector, SelectionKey.OP_CONNECT);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		KeySQLConnection connection = new KeySQLConnection(channel, key, System.nanoTime() + connectTimeoutNanos);
+		connecting.addLast(connection);
+		++pendingConnections;
 		return connection;
 	}
 
-	private int startPool(int size) throws IOException {
+	// establish connections opened by constructor, it's done before
+	// client thread starts, so there is no traffic to block
+	private void startPool(int size) throws IOException {
 		int i = 0, count = 0;
+		IOException error = null;
 		while (i < size) {
+			long now = System.nanoTime();
+			int expired = expireConnecting(now);
+			if (expired > 0) {
+				i += expired;
+				error = new ConnectException("Connection timed out");
+				continue;
+			}
+			KeySQLConnection opening = connecting.peekFirst();
+			if (opening == null)
+				break;
 			// wait for events
-			this.selector.select();
+			this.selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(opening.deadline - now)));
 			// work on selected keys
 			Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
 			while (keys.hasNext()) {
@@ -188,160 +971,150 @@ class KeySQLClient extends Thread {
 				if (!key.isValid()) {
 					continue;
 				}
-				if (key.isConnectable()) {
-					++i;
-					if (establishConnection(key)) {
+				KeySQLConnection connection = (KeySQLConnection) key.attachment();
+				try {
+					if (establishConnection(connection)) {
 						++count;
-						openConnections.add((SocketChannel) key.channel());
+						++poolSize;
+						release(connection);
 					}
+				} catch (IOException e) {
+					error = e;
 				}
+				if (connection.state == KeySQLConnection.State.READY || !key.isValid())
+					++i;
 			}
 		}
-		return count;
+		if (count == 0) {
+			throw error != null ? error : new ConnectException();
+		}
 	}
 
-	private void readData(SelectionKey key) {
-		SocketChannel channel = (SocketChannel) key.channel();
-		StatementSession session = dataMapper.get(channel);
-		ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	// split read bytes into replies: header line, then messageLength bytes of body,
+	// several replies may come in one read when pipelining
+	private void readData(KeySQLConnection connection) {
+		ByteBuffer buffer = readBuffer;
+		buffer.clear();
 		int numRead = -1;
 		try {
-			numRead = channel.read(buffer);
+			numRead = connection.channel.read(buffer);
 		} catch (IOException e) {
 			// Logger.write("Failed to read request.", LogType.CLIENT);
 			numRead = -1;
 		}
 		if (numRead == -1) {
-			if (session != null) {
-				session.setMessageHeader(new MessageHeader(ReplyMessage.EXIT_CODE_COMUNICATION_ERROR));
-				session.setPromise();
-			}
-			this.dataMapper.remove(channel);
 			// Socket socket = channel.socket();
 			// SocketAddress remoteAddr = socket.getRemoteSocketAddress();
 			// System.out.println("Connection closed by server: " + remoteAddr + ", got " + size + " messages.");
-			try {
-				channel.close();
-			} catch (IOException e) {
-			}
-			key.cancel();
+			dropConnection(connection);
 			return;
 		}
-		byte[] data = new byte[numRead];
-		System.arraycopy(buffer.array(), 0, data, 0, numRead);
-		String chunk = new String(data);
-		if (session.getMessageHeader() == null) {
-			int headerEnd = chunk.indexOf('\n');
-			session.setMessageHeader(new MessageHeader(chunk));
-			session.appendReply(chunk.substring(headerEnd + 1), numRead - headerEnd);
-		} else {
-			session.appendReply(chunk, numRead);
-		}
-		if (session.complete()) {
-			dataMapper.put(channel, null);
-			openConnections.add(channel);
-			key.interestOps(SelectionKey.OP_WRITE);
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			if (connection.readingHeader()) {
+				try {
+					if (!connection.readHeader(buffer))
+						break;
+					connection.startReply(pipelineDepth > 1);
+				} catch (ProtocolException e) {
+					rejectConnection(connection);
+					return;
+				}
+			}
+			StatementSession session = connection.reading();
+			int n = (int) Math.min(connection.remaining(), buffer.remaining());
+			if (session != null && n > 0) {
+				if (!session.appendReply(buffer, n))
+					pause(connection);
+			} else {
+				buffer.position(buffer.position() + n);
+			}
+			if (connection.consumed(n) && session != null) {
+				replied(connection, session);
+			}
 		}
 	}
 
-	private void writeData(SelectionKey key) {
-		SocketChannel channel = (SocketChannel) key.channel();
-		StatementSession session = dataMapper.get(channel);
+	// write queued requests, OP_WRITE stays on until socket took all of them
+	private void writeData(KeySQLConnection connection) {
 		try {
-			if (session == null) {
-				return;
-			}
-			ByteBuffer buffer = ByteBuffer.wrap(
-					(session.getMessageHeader().toString() + session.getRequest()).getBytes());
-			channel.write(buffer);
-			buffer.clear();
-			session.setMessageHeader(null);
-			key.interestOps(SelectionKey.OP_READ);
+			if (connection.writer.write(connection.channel, connection.writeQueue()))
+				connection.interest(false);
 		} catch (IOException e) {
-			if (session != null) {
-				session.setMessageHeader(new MessageHeader(ReplyMessage.EXIT_CODE_COMUNICATION_ERROR));
-				session.setPromise();
-			}
-			this.dataMapper.remove(channel);
 			// Socket socket = channel.socket();
 			// SocketAddress remoteAddr = socket.getRemoteSocketAddress();
 			// Logger.write("("Connection closed by server: " + remoteAddr);
-			try {
-				channel.close();
-			} catch (IOException e1) {
-				// Logger.write("Failed to close channel normally.", LogType.CLIENT);
-			}
-			key.cancel();
+			dropConnection(connection);
 			// Logger.write("Failed to write request.", LogType.CLIENT);
 		}
 	}
 
-	private Boolean establishConnection(SelectionKey key) throws IOException {
-		SocketChannel channel = (SocketChannel) key.channel();
+	// one step of connect and handshake, driven by OP_CONNECT, OP_WRITE and OP_READ:
+	// send client version, then read SUCCESS_SIZE bytes of server status.
+	// true when connection is ready, throws if connection failed
+	private boolean establishConnection(KeySQLConnection connection) throws IOException {
+		SocketChannel channel = connection.channel;
+		if (connection.state == KeySQLConnection.State.READY)
+			return true;
 		try {
-			if (channel.finishConnect()) {
-				// handshake
-				key.interestOps(SelectionKey.OP_WRITE);
-				ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
-				byte[] message = new String(CLIENT_VERSION).getBytes();
-				ByteBuffer buffer = ByteBuffer.wrap(message);
-				channel.write(buffer);
-				buffer.clear();
-				int times = 0;
-				key.interestOps(SelectionKey.OP_READ);
-				do {
-					channel.read(readBuffer);
-					if (readBuffer.position() != SUCCESS_SIZE) {
-						sleep(WAIT_TIME * (times + 1));
-					}
-				} while (readBuffer.position() != SUCCESS_SIZE && ++times < REPEAT_TIMES);
-				if (readBuffer.position() == SUCCESS_SIZE) {
-					byte[] data = new byte[SUCCESS_SIZE - 1];
-					System.arraycopy(readBuffer.array(), 0, data, 0, SUCCESS_SIZE - 1);
-					if (Short.valueOf(new String(data)) == ExitStatus.EXIT_SUCCESS.valueOf()) {
-						key.interestOps(SelectionKey.OP_WRITE);
-						// Logger.write("Connection established.", LogType.CLIENT);
-						return true;
-					}
-				}
-				// Logger.write("Failed to establish connection.", LogType.CLIENT);
-				key.channel().close();
-				key.cancel();
+			if (connection.state == KeySQLConnection.State.CONNECTING) {
+				if (!channel.finishConnect())
+					return false;
+				connection.state = KeySQLConnection.State.HANDSHAKE;
+				connection.handshakeOut = ByteBuffer.wrap(CLIENT_VERSION);
+				connection.handshakeIn = ByteBuffer.allocate(SUCCESS_SIZE);
+				// socket is writable right after connect, handshake goes on
+			}
+			if (connection.handshakeOut.hasRemaining()) {
+				channel.write(connection.handshakeOut);
+				connection.key.interestOps(connection.handshakeOut.hasRemaining() 
+						? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
 				return false;
 			}
+			if (channel.read(connection.handshakeIn) < 0)
+				throw new ConnectException("Connection closed by server");
+			if (connection.handshakeIn.hasRemaining())
+				return false;
 		} catch (IOException e) {
 			// Logger.write("Failed to establish connection.", LogType.CLIENT);
-			key.channel().close();
-			key.cancel();
+			failConnection(connection);
 			throw e;
-			// return false;
-		} catch (InterruptedException e) {
-			// Logger.write("KeySQL client thread interrupted", LogType.CLIENT);
 		}
-		return true;
+		connection.handshakeOut = null;
+		byte[] status = connection.handshakeIn.array();
+		connection.handshakeIn = null;
+		if (statusCode(status) == ExitStatus.EXIT_SUCCESS.valueOf()) {
+			--pendingConnections;
+			connectFailures = 0;
+			connection.state = KeySQLConnection.State.READY;
+			connection.key.interestOps(0);
+			// Logger.write("Connection established.", LogType.CLIENT);
+			return true;
+		}
+		// Logger.write("Failed to establish connection.", LogType.CLIENT);
+		failConnection(connection);
+		return false;
 	}
 
-	private void checkCancelled() {
-		for (Map.Entry<SocketChannel, StatementSession> entry : dataMapper.entrySet()) {
-			StatementSession session = entry.getValue();
-			if (session != null && session.promiseCancelled()) {
-				SocketChannel channel = entry.getKey();
-				MessageHeader header = new MessageHeader(0,
-						session.getMessageHeader().getUserId(),
-						session.getMessageHeader().getClientMessageId(),
-						TransactionCommand.ABORT);
-				ByteBuffer buffer = ByteBuffer.wrap(header.toString().getBytes());
-				try {
-					channel.write(buffer);
-				} catch (IOException e) {
-					// Logger.write("Failed to abort transaction.", LogType.CLIENT);
-					try {
-						channel.close();
-					} catch (IOException e1) {
-						// Logger.write("Failed to close channel normally.", LogType.CLIENT);
-					}
-				}
-			}
+	// status line "200\n"
+	private static int statusCode(byte[] status) {
+		int code = 0;
+		for (int i = 0; i < SUCCESS_SIZE - 1; ++i) {
+			if (status[i] < '0' || status[i] > '9')
+				return -1;
+			code = code * 10 + status[i] - '0';
+		}
+		return code;
+	}
+
+	// connect or handshake failed, next attempt backs off
+	private void failConnection(KeySQLConnection connection) {
+		--pendingConnections;
+		try {
+			connection.channel.close();
+		} catch (IOException e) {
 		}
+		connection.key.cancel();
+		backOff(System.nanoTime());
 	}
 }
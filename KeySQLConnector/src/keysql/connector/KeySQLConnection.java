@@ -0,0 +1,199 @@
+package keysql.connector;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//state of pooled connection, attached to its selection key,
+//used by client thread only
+final class KeySQLConnection {
+	enum State {
+		CONNECTING, // waiting for OP_CONNECT
+		HANDSHAKE, // client version sent on OP_WRITE, server status read on OP_READ
+		READY
+	}
+	private static final int HEADER_SIZE = 128;
+	private static final int MAX_HEADER_SIZE = 64 * 1024;
+	// reply kept as one string, its chars must fit in one array
+	private static final long MAX_REPLY_LENGTH = Integer.MAX_VALUE - 1024;
+	// ids of abandoned statements remembered, in case server does not reply to them
+	private static final int MAX_DISCARDED = 64;
+	final SocketChannel channel;
+	final SelectionKey key;
+	State state;
+	// connect and handshake must be done until this time
+	final long deadline;
+	ByteBuffer handshakeOut;
+	ByteBuffer handshakeIn;
+	// sessions sent or waiting to be sent, by client message id
+	private final Map<Long, StatementSession> inFlight;
+	private final ArrayDeque<StatementSession> writeQueue;
+	final RequestWriter writer;
+	// reply being read: header line, then body of messageLength bytes
+	private byte[] headerLine;
+	private ByteBuffer headerView;
+	private int headerLength;
+	// reply header decoded in place, then copied to its session
+	private final MessageHeader replyHeader;
+	private StatementSession reading;
+	private long remaining;
+	long idleSince;
+	// streamed reply waits for its reader, OP_READ is off
+	boolean paused;
+	// in pool's deque of connections accepting sessions
+	boolean accepting;
+	// client message ids of abandoned statements, their late replies are skipped
+	private final ArrayDeque<Long> discarded;
+
+	KeySQLConnection(SocketChannel channel, SelectionKey key, long deadline) {
+		this.channel = channel;
+		this.key = key;
+		this.state = State.CONNECTING;
+		this.deadline = deadline;
+		this.inFlight = new LinkedHashMap<>();
+		this.writeQueue = new ArrayDeque<>();
+		this.discarded = new ArrayDeque<>();
+		this.writer = new RequestWriter();
+		this.headerLine = new byte[HEADER_SIZE];
+		this.headerView = ByteBuffer.wrap(headerLine);
+		this.replyHeader = new MessageHeader(0, 0, 0);
+		this.headerLength = 0;
+		this.reading = null;
+		this.remaining = -1;
+		key.attach(this);
+	}
+
+	// OP_READ unless paused, OP_WRITE if requests wait to be written
+	void interest(boolean write) {
+		key.interestOps((paused ? 0 : SelectionKey.OP_READ) | (write ? SelectionKey.OP_WRITE : 0));
+	}
+
+	int inFlight() {
+		return inFlight.size();
+	}
+
+	boolean idle() {
+		return inFlight.isEmpty() && reading == null;
+	}
+
+	Collection<StatementSession> sessions() {
+		return inFlight.values();
+	}
+
+	void add(StatementSession session) {
+		inFlight.put(session.getMessageHeader().getClientMessageId(), session);
+		writeQueue.add(session);
+	}
+
+	ArrayDeque<StatementSession> writeQueue() {
+		return writeQueue;
+	}
+
+	// statement leaves connection without its reply, reply arriving later
+	// is skipped. false if request was not written, so server never sees it
+	boolean abandon(StatementSession session) {
+		Long id = session.getMessageHeader().getClientMessageId();
+		if (writeQueue.remove(session)) {
+			inFlight.remove(id);
+			return false;
+		}
+		if (reading == session) {
+			// rest of reply is skipped
+			reading = null;
+			return true;
+		}
+		inFlight.remove(id);
+		if (discarded.size() == MAX_DISCARDED)
+			discarded.pollFirst();
+		discarded.addLast(id);
+		return true;
+	}
+
+	// sent and not replied sessions, including one which reply is being read
+	Iterator<StatementSession> pending() {
+		if (reading != null)
+			inFlight.put(reading.getMessageHeader().getClientMessageId(), reading);
+		reading = null;
+		return inFlight.values().iterator();
+	}
+
+	boolean readingHeader() {
+		return remaining < 0;
+	}
+
+	// collect header line, true if '\n' reached
+	boolean readHeader(ByteBuffer buffer) throws ProtocolException {
+		while (buffer.hasRemaining()) {
+			byte b = buffer.get();
+			if (headerLength == headerLine.length) {
+				if (headerLength == MAX_HEADER_SIZE)
+					throw new ProtocolException("Reply header too long");
+				byte[] line = new byte[headerLine.length * 2];
+				System.arraycopy(headerLine, 0, line, 0, headerLength);
+				headerLine = line;
+				headerView = ByteBuffer.wrap(headerLine);
+			}
+			headerLine[headerLength++] = b;
+			if (b == '\n')
+				return true;
+		}
+		return false;
+	}
+
+	// match reply header with session by client message id,
+	// single session in flight gets the reply regardless of id.
+	// throws if header is malformed or its length can not be read
+	StatementSession startReply(boolean matchById) throws ProtocolException {
+		headerView.limit(headerLength).position(0);
+		headerLength = 0;
+		try {
+			replyHeader.decode(headerView);
+		} catch (NumberFormatException e) {
+			throw new ProtocolException(e.getMessage());
+		}
+		long length = replyHeader.getMessageLength();
+		if (length < 0)
+			throw new ProtocolException("Invalid reply length " + length);
+		StatementSession session = inFlight.remove(replyHeader.getClientMessageId());
+		if (session == null && !discarded.isEmpty()) {
+			// late reply of abandoned statement, or unknown while one is expected
+			discarded.remove(replyHeader.getClientMessageId());
+		} else if (session == null && !matchById && inFlight.size() == 1) {
+			Iterator<StatementSession> it = inFlight.values().iterator();
+			session = it.next();
+			it.remove();
+		}
+		reading = session;
+		if (session != null && session.getStream() == null && length > MAX_REPLY_LENGTH)
+			throw new ProtocolException("Reply too long " + length);
+		if (session != null)
+			session.getMessageHeader().copy(replyHeader);
+		remaining = length;
+		return session;
+	}
+
+	// session reply belongs to, null if reply is discarded
+	StatementSession reading() {
+		return reading;
+	}
+
+	long remaining() {
+		return remaining;
+	}
+
+	// true if reply is read completely
+	boolean consumed(long bytes) {
+		remaining -= bytes;
+		if (remaining > 0)
+			return false;
+		reading = null;
+		remaining = -1;
+		return true;
+	}
+}
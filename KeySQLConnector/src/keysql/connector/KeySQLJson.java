@@ -1,6 +1,19 @@
 package keysql.connector;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -9,15 +22,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.JsonNodeType;
 
 public class KeySQLJson implements IKeySQLJson {
+	private static final int OUTPUT_SIZE = 8 * 1024;
 	private final Map<String,String> arrayObjectNames;
 	private final KeySQLObject root;
 	private final Map<String,KeySQLObject> names;
@@ -33,7 +49,8 @@ public class KeySQLJson implements IKeySQLJson {
 		this.arrayObjectNames = arrayObjectNames;
 		names = new HashMap<>();
 		mapper = new ObjectMapper();
-		factory = mapper.getFactory();
+		// input of convertInstances belongs to caller
+		factory = mapper.getFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
 		JsonParser jp = factory.createParser(jsonSchema);
 		JsonNode node = mapper.readTree(jp);
 		root = parseSchemaNode(node, rootName);
@@ -115,47 +132,279 @@ public class KeySQLJson implements IKeySQLJson {
 	//return insert statement or null, if all json instances do not match schema
 	//skip instance, if it doesn't match schema
 	//ignore node if it is not found in schema
+	//malformed instance is skipped, instances after it are converted
 	@Override
 	public String insertInstancesStatement(final String jsonInstances, final String storeName) {
 		final StringBuilder sb = new StringBuilder();
-		int brackets = 0;
-		int start = -1;
-		for (int i = 0; i < jsonInstances.length(); ++i) {
-			char c = jsonInstances.charAt(i);
-			if (c == '{') {
-				++brackets;
-				if (start < 0)
-					start = i;
+		try {
+			insertInstancesStatement(new StringReader(jsonInstances), storeName, sb);
+		} catch (IOException e) {
+			//Logger.write("JsonParseException: " + e.getMessage());
+		}
+		if (sb.length() == 0)
+			return null;
+		return sb.toString();
+	}
+	//write insert statement for json instances read from input to out,
+	//nothing is written if no instance matches schema
+	//return number of instances written
+	@Override
+	public long insertInstancesStatement(final Reader jsonInstances, final String storeName, final Appendable out)
+			throws IOException {
+		return writeInstances(jsonInstances, out, "INSERT INTO " + storeName + " INSTANCES\n", ",\n");
+	}
+	@Override
+	public long writeInstances(final Reader jsonInstances, final Appendable out, final String separator)
+			throws IOException {
+		return writeInstances(jsonInstances, out, "", separator);
+	}
+	private long writeInstances(final Reader jsonInstances, final Appendable out, final String header,
+			final String separator) throws IOException {
+		if (out instanceof StringBuilder) {
+			// instances are written in place, header goes before first one
+			return convertInstances(jsonInstances, (StringBuilder)out, separator, (buffer, start, index) -> {
+				if (index == 0 && !header.isEmpty())
+					buffer.insert(start, header);
+			});
+		}
+		final char[][] chars = new char[1][];
+		return convertInstances(jsonInstances, new StringBuilder(), separator, (buffer, start, index) -> {
+			if (index == 0)
+				out.append(header);
+			if (out instanceof Writer) {
+				// Writer.append makes String of CharSequence
+				if (chars[0] == null || chars[0].length < buffer.length())
+					chars[0] = new char[Math.max(OUTPUT_SIZE, buffer.length())];
+				buffer.getChars(0, buffer.length(), chars[0], 0);
+				((Writer)out).write(chars[0], 0, buffer.length());
 			}
-			else if (c == '}' && --brackets == 0) {
-				String s = getInstance(jsonInstances.substring(start, i + 1));
-				if (s != null) {
-					if (sb.length() > 0)
-						sb.append(",\n");
-					sb.append(s);
+			else
+				out.append(buffer);
+			buffer.setLength(0);
+		});
+	}
+	@Override
+	public long writeInstances(final Reader jsonInstances, final OutputStream out, final String separator)
+			throws IOException {
+		// lone surrogate is written as '?', like String.getBytes does
+		final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		final ByteBuffer bytes = ByteBuffer.allocate(OUTPUT_SIZE);
+		final CharBuffer[] chars = { CharBuffer.allocate(OUTPUT_SIZE) };
+		return convertInstances(jsonInstances, new StringBuilder(), separator, (buffer, start, index) -> {
+			if (chars[0].capacity() < buffer.length())
+				chars[0] = CharBuffer.allocate(buffer.length());
+			CharBuffer in = chars[0];
+			in.clear();
+			buffer.getChars(0, buffer.length(), in.array(), 0);
+			in.limit(buffer.length());
+			buffer.setLength(0);
+			// UTF-8 encoder keeps nothing back to flush
+			encoder.reset();
+			CoderResult result;
+			do {
+				result = encoder.encode(in, bytes, true);
+				out.write(bytes.array(), 0, bytes.position());
+				bytes.clear();
+			} while (result.isOverflow());
+		});
+	}
+	//convert json instances one by one as they are read, in constant memory:
+	//array "[{...},{...}]", or objects separated by commas or whitespace
+	//instances are passed as "{...}", input is not closed
+	//malformed instance is skipped like one not matching schema
+	//return number of converted instances
+	@Override
+	public long convertInstances(final Reader jsonInstances, final Consumer<String> instances) throws IOException {
+		return convertInstances(jsonInstances, new StringBuilder(), "", (buffer, start, index) -> {
+			instances.accept(buffer.toString());
+			buffer.setLength(0);
+		});
+	}
+
+	// instance is complete at end of buffer, it begins at start
+	private interface InstanceWritten {
+		void written(StringBuilder buffer, int start, long index) throws IOException;
+	}
+
+	//instances and separators between them are written to end of out,
+	//instance that doesn't match schema or breaks off is truncated from out
+	private long convertInstances(final Reader jsonInstances, final StringBuilder out, final String separator,
+			final InstanceWritten written) throws IOException {
+		// parser returns unread chars of broken instance, they are read again from here
+		final ResumeReader in = new ResumeReader(jsonInstances);
+		long count = 0;
+		int start = out.length();
+		JsonParser p = factory.createParser(in);
+		try {
+			for (;;) {
+				try {
+					JsonToken token;
+					// arrays holding instances are entered, other values are skipped
+					while ((token = nextToken(p)) != null) {
+						if (token != JsonToken.START_OBJECT)
+							continue;
+						if (count > 0)
+							out.append(separator);
+						out.append('{');
+						if (root.writeInstance(p, out)) {
+							out.append('}');
+							written.written(out, start, count++);
+						}
+						else
+							out.setLength(start);
+						start = out.length();
+					}
+					return count;
+				} catch (JsonParseException e) {
+					out.setLength(start);
+					JsonParser broken = p;
+					p = null;
+					skipInstance(broken, in, e);
+					p = factory.createParser(in);
 				}
-				start = -1; 
 			}
+		} finally {
+			if (p != null)
+				p.close();
 		}
-		if (sb.length() == 0)
-			return null;
-		return "INSERT INTO " + storeName + " INSTANCES\n" + sb.toString();
+	}
+	//bytes are decoded as UTF-8
+	@Override
+	public long convertInstances(final InputStream jsonInstances, final Consumer<String> instances) throws IOException {
+		return convertInstances(new InputStreamReader(jsonInstances, StandardCharsets.UTF_8), instances);
 	}
 
-	private String getInstance(final String jsonInstance) {
+	//parser stops behind unexpected root char and goes on with next value
+	private static JsonToken nextToken(final JsonParser p) throws IOException {
 		try {
-			JsonParser jp = factory.createParser(jsonInstance);
-			JsonNode node = mapper.readTree(jp);
-			String s = root.getInstance(node);
-			if (s == null)
-				return null;
-			return "{" + s + "}";
+			return p.nextToken();
 		} catch (JsonParseException e) {
-			//int pos = (int)e.getLocation().getCharOffset();
-			//Logger.write("JsonParseException: " + jsonInstance.substring(pos, pos + 20));
-			return null;
-		} catch (IOException e) {
-			return null;
+			if (!p.getParsingContext().inRoot())
+				throw e;
+			return p.nextToken();
+		}
+	}
+
+	//recovery rule for instance parser failed in: input is read again from
+	//start of token parser was at, or from failing char if parser holds that
+	//token no longer. braces outside strings are counted ('"' toggles string,
+	//'\' escapes next char) and the instance ends where objects open at
+	//failure are closed. a ',' behind it is dropped and next instance is read
+	//by new parser, in root array again if input was one. a string that is not
+	//closed hides braces up to next quote, more instances may be skipped then
+	private static void skipInstance(final JsonParser p, final ResumeReader in, final JsonParseException e)
+			throws IOException {
+		int depth = 0;
+		boolean rootArray = false;
+		for (JsonStreamContext c = p.getParsingContext(); !c.inRoot(); c = c.getParent()) {
+			if (c.inObject())
+				++depth;
+			rootArray = c.inArray();
+		}
+		final long consumed = p.getCurrentLocation().getCharOffset();
+		final StringWriter again = new StringWriter();
+		if (depth == 0) {
+			// failed between instances, parser did not move
+			if (consumed == 0)
+				throw e;
+			p.releaseBuffered(again);
+			p.close();
+			in.pushBack(again.toString(), false);
+			return;
+		}
+		long from = p.getTokenLocation().getCharOffset();
+		if (in.served(from) < 0)
+			from = consumed - 1;
+		// brace of token is read again
+		else if (p.getCurrentToken() == JsonToken.START_OBJECT)
+			--depth;
+		else if (p.getCurrentToken() == JsonToken.END_OBJECT)
+			++depth;
+		for (long i = from; i < consumed && in.served(i) >= 0; ++i)
+			again.write(in.served(i));
+		p.releaseBuffered(again);
+		p.close();
+		in.pushBack(again.toString(), false);
+		boolean string = false;
+		boolean escape = false;
+		for (;;) {
+			int c = in.read();
+			if (c < 0)
+				return;
+			if (escape)
+				escape = false;
+			else if (string) {
+				if (c == '\\')
+					escape = true;
+				else if (c == '"')
+					string = false;
+			}
+			else if (c == '"')
+				string = true;
+			else if (c == '{')
+				++depth;
+			else if (c == '}' && --depth == 0)
+				break;
+		}
+		int c;
+		do
+			c = in.read();
+		while (c == ' ' || c == '\t' || c == '\r' || c == '\n');
+		in.pushBack(c < 0 || c == ',' ? "" : String.valueOf((char)c), rootArray);
+	}
+
+	// input with chars read again in front, input is not closed
+	private static final class ResumeReader extends Reader {
+		private final Reader in;
+		private String front = "";
+		private int position = 0;
+		// chars served since last push back, and the last read of them
+		private long served = 0;
+		private char[] last;
+		private int lastOffset;
+		private int lastLength = 0;
+
+		ResumeReader(Reader in) {
+			this.in = in;
+		}
+		//chars are read before rest of front, after '[' if array
+		void pushBack(String chars, boolean array) {
+			front = (array ? "[" : "") + chars + front.substring(position);
+			position = 0;
+			served = 0;
+			lastLength = 0;
+		}
+		//char served at index since last push back, -1 if not in last read
+		int served(long index) {
+			long i = index - (served - lastLength);
+			return i >= 0 && i < lastLength ? last[lastOffset + (int)i] : -1;
+		}
+		@Override
+		public int read(char[] chars, int offset, int length) throws IOException {
+			int n;
+			if (position == front.length())
+				n = in.read(chars, offset, length);
+			else {
+				n = Math.min(length, front.length() - position);
+				front.getChars(position, position + n, chars, offset);
+				position += n;
+			}
+			last = chars;
+			lastOffset = offset;
+			lastLength = Math.max(n, 0);
+			served += lastLength;
+			return n;
+		}
+		@Override
+		public int read() throws IOException {
+			if (position == front.length())
+				return in.read();
+			return front.charAt(position++);
+		}
+		@Override
+		public void close() {
 		}
 	}
 }
@@ -192,8 +441,11 @@ class KeySQLObject {
 	}
 	public void createStatements(Set<String> processed, List<String> statements) {
 	}
-	public String getInstance(JsonNode node) {
-		return null;
+	//parser is at first token of value, value is consumed and written to out,
+	//false if it doesn't match schema, caller truncates out then
+	public boolean writeInstance(JsonParser p, StringBuilder out) throws IOException {
+		p.skipChildren();
+		return false;
 	}
 }
 
@@ -231,23 +483,38 @@ class PrimitiveObject extends KeySQLObject {
 		processed.add(name);
 		statements.add(name + " " + PrimitiveObjectType.getType(type));
 	}
-	public String getInstance(JsonNode node) {
-		JsonNodeType jsonType = node.getNodeType();
-		switch (jsonType) {
-		case NULL:
-			return name+":NULL";
-		case NUMBER:
-			if (type == PrimitiveObjectType.NumberType)
-				return name + ":" + node.asText();
-			break;
-		case STRING:
+	public boolean writeInstance(JsonParser p, StringBuilder out) throws IOException {
+		switch (p.getCurrentToken()) {
+		case VALUE_NULL:
+			out.append(name).append(":NULL");
+			return true;
+		case VALUE_NUMBER_INT:
+			if (type != PrimitiveObjectType.NumberType)
+				break;
+			out.append(name).append(':');
+			if (p.getNumberType() == JsonParser.NumberType.BIG_INTEGER)
+				out.append(p.getBigIntegerValue());
+			else
+				out.append(p.getLongValue());
+			return true;
+		case VALUE_NUMBER_FLOAT:
 			if (type != PrimitiveObjectType.NumberType)
-				return name + ":'" + node.asText() + "'";
-			return name + ":" + node.asText();
+				break;
+			out.append(name).append(':').append(p.getDoubleValue());
+			return true;
+		case VALUE_STRING:
+			out.append(name).append(':');
+			// text is copied from parser buffer
+			if (type != PrimitiveObjectType.NumberType)
+				out.append('\'').append(p.getTextCharacters(), p.getTextOffset(), p.getTextLength()).append('\'');
+			else
+				out.append(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+			return true;
 		default:
+			p.skipChildren();
 			break;
 		}
-		return null;
+		return false;
 	}
 }
 
@@ -278,39 +545,54 @@ class MultipleObject extends KeySQLObject {
 		ref.createStatements(processed, statements);
 		statements.add(name + " {" + ref.getName() + " MULTIPLE}");
 	}
-	public String getInstance(JsonNode node) {
-		JsonNodeType jsonType = node.getNodeType();
-		if (jsonType == JsonNodeType.NULL)
-			return name + ":NULL";
-		if (jsonType != JsonNodeType.ARRAY)
-			return null;
-		StringBuilder sb = new StringBuilder(name + ":{");
-		int initialLength = sb.length();
-		Iterator<JsonNode> it = node.iterator();
+	public boolean writeInstance(JsonParser p, StringBuilder out) throws IOException {
+		JsonToken token = p.getCurrentToken();
+		if (token == JsonToken.VALUE_NULL) {
+			out.append(name).append(":NULL");
+			return true;
+		}
+		if (token != JsonToken.START_ARRAY) {
+			p.skipChildren();
+			return false;
+		}
+		int start = out.length();
+		out.append(name).append(":{");
+		int initialLength = out.length();
 		boolean not_first = false;
-		while (it.hasNext()) {
-			JsonNode field = it.next();
+		boolean matched = true;
+		while (p.nextToken() != JsonToken.END_ARRAY) {
+			if (!matched) {
+				// rest of array is read to stay in step with parser
+				p.skipChildren();
+				continue;
+			}
 			if (not_first)
-				sb.append(',');
+				out.append(',');
 			not_first = true;
-			String s = ref.getInstance(field);
-			if (s == null)
-				return null;
-			sb.append(s);
+			matched = ref.writeInstance(p, out);
 		}
-		if (sb.length() == initialLength) {
-			return name + ":NULL";
+		if (!matched)
+			return false;
+		if (out.length() == initialLength) {
+			out.setLength(start);
+			out.append(name).append(":NULL");
+			return true;
 		}
-		sb.append('}');
-		return sb.toString();
+		out.append('}');
+		return true;
 	}
 }
 
 class ComposedObject extends KeySQLObject {
 	private final Map<String,KeySQLObject> childs;
+	// childs by index of FieldIndex, compiled once for conversion
+	private final FieldIndex index;
+	private final KeySQLObject[] fields;
 	public ComposedObject(String name, Map<String,KeySQLObject> childs) {
 		super(name);
 		this.childs = childs;
+		index = new FieldIndex(childs.keySet());
+		fields = childs.values().toArray(new KeySQLObject[childs.size()]);
 	}
 	public final ObjectType getType() {
 		return ObjectType.Composed;
@@ -346,33 +628,69 @@ class ComposedObject extends KeySQLObject {
 		}
 		statements.add(name + " {" + st.toString() + "}");
 	}
-	public String getInstance(JsonNode node) {
-		JsonNodeType jsonType = node.getNodeType();
-		if (jsonType == JsonNodeType.NULL)
-			return "{" + name + ":NULL}";
-		if (jsonType != JsonNodeType.OBJECT)
-			return null;
-		StringBuilder sb = new StringBuilder(name + ":{");
-		int initialLength = sb.length();
-		Iterator<Map.Entry<String, JsonNode>> it = node.fields();
+	public boolean writeInstance(JsonParser p, StringBuilder out) throws IOException {
+		JsonToken token = p.getCurrentToken();
+		if (token == JsonToken.VALUE_NULL) {
+			out.append('{').append(name).append(":NULL}");
+			return true;
+		}
+		if (token != JsonToken.START_OBJECT) {
+			p.skipChildren();
+			return false;
+		}
+		int start = out.length();
+		out.append(name).append(":{");
+		int initialLength = out.length();
 		boolean not_first = false;
-		while (it.hasNext()) {
-			Map.Entry<String, JsonNode> field = it.next();
-			KeySQLObject ref = childs.get(field.getKey().toUpperCase());
-			if (ref == null)
+		// value of each field in out, 0 if not written. repeated key replaces
+		// value where key was first, last one wins as in tree read before
+		final int[] starts = new int[fields.length];
+		final int[] ends = new int[fields.length];
+		final boolean[] mismatched = new boolean[fields.length];
+		int mismatches = 0;
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			int field = index.find(p.getCurrentName());
+			p.nextToken();
+			if (field < 0) {
+				p.skipChildren();
 				continue;
-			if (not_first) 
-				sb.append(',');
-			not_first = true;
-			String s = ref.getInstance(field.getValue());
-			if (s == null)
-				return null;
-			sb.append(s);
+			}
+			if (starts[field] == 0) {
+				if (not_first) 
+					out.append(',');
+				not_first = true;
+				starts[field] = out.length();
+			}
+			int valueStart = out.length();
+			boolean matched = fields[field].writeInstance(p, out);
+			if (!matched)
+				out.setLength(valueStart);
+			int length = out.length() - valueStart;
+			if (valueStart != starts[field]) {
+				String value = out.substring(valueStart);
+				out.setLength(valueStart);
+				out.replace(starts[field], ends[field], value);
+				int moved = length - (ends[field] - starts[field]);
+				for (int i = 0; i < fields.length; ++i)
+					if (starts[i] > starts[field]) {
+						starts[i] += moved;
+						ends[i] += moved;
+					}
+			}
+			ends[field] = starts[field] + length;
+			if (matched == mismatched[field]) {
+				mismatched[field] = !matched;
+				mismatches += matched ? -1 : 1;
+			}
 		}
-		if (sb.length() == initialLength) {
-			return name + ":NULL";
+		if (mismatches > 0)
+			return false;
+		if (out.length() == initialLength) {
+			out.setLength(start);
+			out.append(name).append(":NULL");
+			return true;
 		}
-		sb.append("}");
-		return sb.toString();
+		out.append('}');
+		return true;
 	}
 }
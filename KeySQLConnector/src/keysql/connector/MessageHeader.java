@@ -1,9 +1,21 @@
 package keysql.connector;
 
 import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.DecimalFormat;
 
 final class MessageHeader {
+	// numbers, names and separators of encoded header, without format and encoding
+	private static final int MAX_FIXED_SIZE = 160;
+	// DecimalFormat is not thread safe, one per client thread
+	private static final ThreadLocal<DecimalFormat> ELAPSED_FORMAT = ThreadLocal.withInitial(() -> {
+		DecimalFormat df = new DecimalFormat("#.##");
+		df.setRoundingMode(RoundingMode.HALF_DOWN);
+		return df;
+	});
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15 };
 	long messageLength;
 	int userId;
 	long clientMessageId;
@@ -33,44 +45,218 @@ final class MessageHeader {
 		this.clientMessageId = -1;
 	}
 	MessageHeader(String message) {
-		String[] parts = message.substring(0, message.indexOf('\n')).split(" ");
-		if (parts.length > 0)
-			messageLength = Long.valueOf(parts[0]);
-		if (parts.length > 1)
-			userId = Integer.valueOf(parts[1]);
-		if (parts.length > 2)
-			clientMessageId = Long.valueOf(parts[2]);
-		if (parts.length > 3)
-			command = setValue(Integer.valueOf(parts[3]).intValue());
-		if (parts.length > 4)
-			exitCode = Short.valueOf(parts[4]);
-		for (int i = 5; i < parts.length; i += 2) {
-			if (i == parts.length - 1)
-				break;
-			String prompt = parts[i];
-			String value = parts[i + 1];
-			
-			switch(prompt) {			
-			case "type":
-				type = StatementType.fromInteger(Integer.valueOf(value));
+		decode(ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII)));
+	}
+	// take all fields of other header
+	void copy(MessageHeader other) {
+		messageLength = other.messageLength;
+		userId = other.userId;
+		clientMessageId = other.clientMessageId;
+		command = other.command;
+		exitCode = other.exitCode;
+		type = other.type;
+		instanceCount = other.instanceCount;
+		elapsedTime = other.elapsedTime;
+		page = other.page;
+		messageFormat = other.messageFormat;
+		encoding = other.encoding;
+	}
+	// parse header line from position to limit or '\n', without allocation:
+	// "len userId id command exitCode [name value]..."
+	void decode(ByteBuffer in) {
+		String lastFormat = messageFormat;
+		String lastEncoding = encoding;
+		messageLength = 0;
+		userId = 0;
+		clientMessageId = 0;
+		command = TransactionCommand.EXECUTE;
+		exitCode = 0;
+		type = StatementType.UNKNOWN;
+		instanceCount = 0;
+		elapsedTime = -1.0;
+		page = 0;
+		messageFormat = null;
+		encoding = null;
+		int end = in.limit();
+		int pos = in.position();
+		int field = 0;
+		int name = -1;
+		int nameEnd = -1;
+		while (pos < end) {
+			int start = pos;
+			byte b;
+			while (pos < end && (b = in.get(pos)) != ' ' && b != '\n')
+				++pos;
+			switch (field++) {
+			case 0:
+				messageLength = parseLong(in, start, pos);
 				break;
-			case "count":
-				instanceCount = Long.valueOf(value);
+			case 1:
+				userId = (int) parseLong(in, start, pos, Integer.MIN_VALUE, Integer.MAX_VALUE);
 				break;
-			case "page":
-				page = Integer.valueOf(value);
+			case 2:
+				clientMessageId = parseLong(in, start, pos);
 				break;
-			case "format":
-				messageFormat = value;
+			case 3:
+				command = setValue((int) parseLong(in, start, pos, Integer.MIN_VALUE, Integer.MAX_VALUE));
 				break;
-			case "encoding":
-				encoding = value;
+			case 4:
+				exitCode = (short) parseLong(in, start, pos, Short.MIN_VALUE, Short.MAX_VALUE);
 				break;
-			case "time":
-				elapsedTime = Double.valueOf(value);
+			default:
+				// extra spaces
+				if (start == pos)
+					break;
+				if (name < 0) {
+					name = start;
+					nameEnd = pos;
+					break;
+				}
+				if (equals(in, name, nameEnd, "type"))
+					type = StatementType.fromInteger((int) parseLong(in, start, pos, Integer.MIN_VALUE, Integer.MAX_VALUE));
+				else if (equals(in, name, nameEnd, "count"))
+					instanceCount = parseLong(in, start, pos);
+				else if (equals(in, name, nameEnd, "page"))
+					page = (int) parseLong(in, start, pos, Integer.MIN_VALUE, Integer.MAX_VALUE);
+				else if (equals(in, name, nameEnd, "format"))
+					messageFormat = value(in, start, pos, lastFormat, "json", "keysql");
+				else if (equals(in, name, nameEnd, "encoding"))
+					encoding = value(in, start, pos, lastEncoding, "UTF-8", "utf-8");
+				else if (equals(in, name, nameEnd, "time"))
+					elapsedTime = parseDouble(in, start, pos);
+				name = -1;
+			}
+			if (pos == end || in.get(pos) == '\n')
 				break;
+			++pos;
+		}
+		in.position(end);
+	}
+	// upper bound of encoded header size
+	int maxEncodedLength() {
+		return MAX_FIXED_SIZE + (messageFormat == null ? 0 : messageFormat.length())
+				+ (encoding == null ? 0 : encoding.length());
+	}
+	// write header line in text format, out must have maxEncodedLength() bytes free
+	void encode(ByteBuffer out) {
+		putLong(out, messageLength).put((byte) ' ');
+		putLong(out, userId).put((byte) ' ');
+		putLong(out, clientMessageId).put((byte) ' ');
+		putLong(out, command.valueOf()).put((byte) ' ');
+		putLong(out, exitCode);
+		if (type != StatementType.UNKNOWN) {
+			putLong(putAscii(out, " type "), type.getValue());
+		}
+		if (instanceCount >=  0) {
+			putLong(putAscii(out, " count "), instanceCount);
+		}
+		if (page > 0) {
+			putLong(putAscii(out, " page "), page);
+		}
+		if (messageFormat != null && !messageFormat.isEmpty()) {
+			putAscii(putAscii(out, " format "), messageFormat);
+		}
+		if (encoding != null && !encoding.isEmpty()) {
+			putAscii(putAscii(out, " encoding "), encoding);
+		}
+		out.put((byte) '\n');
+	}
+	// digits are added negatively like Long.parseLong, so Long.MIN_VALUE fits
+	private static long parseLong(ByteBuffer in, int start, int end) {
+		boolean negative = start < end && in.get(start) == '-';
+		int i = negative ? start + 1 : start;
+		if (i == end)
+			throw new NumberFormatException("Empty header field");
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long value = 0;
+		for (; i < end; ++i) {
+			int digit = in.get(i) - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException("Invalid header field: " + ascii(in, start, end));
+			if (value < limit / 10 || value * 10 < limit + digit)
+				throw new NumberFormatException("Header field out of range: " + ascii(in, start, end));
+			value = value * 10 - digit;
+		}
+		return negative ? value : -value;
+	}
+	private static long parseLong(ByteBuffer in, int start, int end, long min, long max) {
+		long value = parseLong(in, start, end);
+		if (value < min || value > max)
+			throw new NumberFormatException("Header field out of range: " + ascii(in, start, end));
+		return value;
+	}
+	// plain decimals up to 15 digits are exact, other forms as exponents,
+	// NaN or Infinity are left to Double
+	private static double parseDouble(ByteBuffer in, int start, int end) {
+		boolean negative = start < end && in.get(start) == '-';
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean fraction = false;
+		for (int i = negative ? start + 1 : start; i < end; ++i) {
+			byte b = in.get(i);
+			if (b == '.' && !fraction) {
+				fraction = true;
+				continue;
 			}
+			if (b < '0' || b > '9' || digits == 15)
+				return Double.parseDouble(ascii(in, start, end));
+			mantissa = mantissa * 10 + (b - '0');
+			++digits;
+			if (fraction)
+				++scale;
+		}
+		if (digits == 0)
+			return Double.parseDouble(ascii(in, start, end));
+		double value = mantissa / POWERS_OF_TEN[scale];
+		return negative ? -value : value;
+	}
+	private static boolean equals(ByteBuffer in, int start, int end, String s) {
+		if (end - start != s.length())
+			return false;
+		for (int i = start; i < end; ++i) {
+			if (in.get(i) != s.charAt(i - start))
+				return false;
 		}
+		return true;
+	}
+	// repeated values reuse the same string
+	private static String value(ByteBuffer in, int start, int end, String last, String common, String other) {
+		if (last != null && equals(in, start, end, last))
+			return last;
+		if (equals(in, start, end, common))
+			return common;
+		if (equals(in, start, end, other))
+			return other;
+		return ascii(in, start, end);
+	}
+	private static String ascii(ByteBuffer in, int start, int end) {
+		char[] chars = new char[end - start];
+		for (int i = start; i < end; ++i)
+			chars[i - start] = (char) (in.get(i) & 0xff);
+		return new String(chars);
+	}
+	private static ByteBuffer putAscii(ByteBuffer out, String s) {
+		for (int i = 0; i < s.length(); ++i)
+			out.put((byte) s.charAt(i));
+		return out;
+	}
+	private static ByteBuffer putLong(ByteBuffer out, long value) {
+		// digits of negative value, so Long.MIN_VALUE needs no special case
+		long v = value < 0 ? value : -value;
+		if (value < 0)
+			out.put((byte) '-');
+		int digits = 1;
+		for (long q = v / 10; q != 0; q /= 10)
+			++digits;
+		int pos = out.position() + digits;
+		for (int i = pos - 1; i >= out.position(); --i) {
+			long q = v / 10;
+			out.put(i, (byte) ('0' + (q * 10 - v)));
+			v = q;
+		}
+		out.position(pos);
+		return out;
 	}
 	short getExitCode() {
 		return exitCode;
@@ -121,38 +307,23 @@ final class MessageHeader {
    }
 	@Override
 	public String toString() {
-		StringBuilder r = new StringBuilder(messageLength + " " + userId + " " + clientMessageId + " " +  
-				command.valueOf() + " " + exitCode);
-		if (type != StatementType.UNKNOWN) {
-			r.append(" type " + type.getValue());
-		}
-		if (instanceCount >=  0) {
-			r.append(" count " + instanceCount);
-		}
-		if (page > 0) {
-			r.append(" page " + page);
-		}
-		if (messageFormat != null && !messageFormat.isEmpty()) {
-			r.append(" format " + messageFormat);
-		}
-		if (encoding != null && !encoding.isEmpty()) {
-			r.append(" encoding " + encoding);
-		}
-		return r.append('\n').toString();
+		ByteBuffer out = ByteBuffer.allocate(maxEncodedLength());
+		encode(out);
+		return new String(out.array(), 0, out.position(), StandardCharsets.US_ASCII);
+	}
+	private String elapsed() {
+		return "(" + ELAPSED_FORMAT.get().format(elapsedTime) + " sec)";
 	}
 	public String getResultLine() {
 		if (ExitStatus.EXIT_SUCCESS.valueOf() != exitCode)
 			return "";
-		DecimalFormat df = new DecimalFormat("#.##");
-		df.setRoundingMode(RoundingMode.HALF_DOWN);
-		String elapsed = "(" +df.format(elapsedTime) + " sec)";
 		switch (type) {
 		case SELECT:
 			return instanceCount 
 					+ " instance" 
 					+ (instanceCount == 1 ? "" : "s") 
 					+  " in result store " 
-					+ elapsed;
+					+ elapsed();
 
 		case INSERT:
 		case UPDATE:
@@ -162,12 +333,12 @@ final class MessageHeader {
 					+ " instance" 
 					+ (instanceCount == 1 ? "" : "s") 
 					+  " affected " 
-					+ elapsed;
+					+ elapsed();
 
 		case CREATE:
 		case DROP:
 			return "KeySQL query OK. " 
-					+ elapsed;
+					+ elapsed();
 			
 		default:
 			return "";
@@ -0,0 +1,154 @@
+package keysql.connector;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+//compares ByteBuffer header codec with previous String based parser and toString,
+//run with: java -cp <classpath> keysql.connector.MessageHeaderBenchmark
+final class MessageHeaderBenchmark {
+	private static final int WARMUP = 1_000_000;
+	private static final int ITERATIONS = 2_000_000;
+	private static final String[] REPLIES = {
+			"42 7 1001 1 200 type 7 count 12 time 0.001\n",
+			"1048576 7 123456789 1 200 type 4 count 1000 page 2 format json encoding UTF-8 time 12.75\n",
+			"0 0 -1 2 400\n",
+			"35 12 99 1 300 type 3 count 0 format keysql time 1e-05\n" };
+
+	// reply header parser before ByteBuffer codec
+	private static final class StringHeader {
+		long messageLength;
+		int userId;
+		long clientMessageId;
+		int command = 1;
+		short exitCode;
+		int type;
+		long instanceCount;
+		double elapsedTime = -1.0;
+		int page;
+		String messageFormat;
+		String encoding;
+
+		StringHeader(String message) {
+			String[] parts = message.substring(0, message.indexOf('\n')).split(" ");
+			if (parts.length > 0)
+				messageLength = Long.valueOf(parts[0]);
+			if (parts.length > 1)
+				userId = Integer.valueOf(parts[1]);
+			if (parts.length > 2)
+				clientMessageId = Long.valueOf(parts[2]);
+			if (parts.length > 3)
+				command = Integer.valueOf(parts[3]).intValue();
+			if (parts.length > 4)
+				exitCode = Short.valueOf(parts[4]);
+			for (int i = 5; i < parts.length; i += 2) {
+				if (i == parts.length - 1)
+					break;
+				String value = parts[i + 1];
+				switch (parts[i]) {
+				case "type":
+					type = Integer.valueOf(value);
+					break;
+				case "count":
+					instanceCount = Long.valueOf(value);
+					break;
+				case "page":
+					page = Integer.valueOf(value);
+					break;
+				case "format":
+					messageFormat = value;
+					break;
+				case "encoding":
+					encoding = value;
+					break;
+				case "time":
+					elapsedTime = Double.valueOf(value);
+					break;
+				}
+			}
+		}
+
+		boolean sameAs(MessageHeader h) {
+			return messageLength == h.messageLength && userId == h.userId && clientMessageId == h.clientMessageId
+					&& command == h.command.valueOf() && exitCode == h.exitCode && type == h.type.getValue()
+					&& instanceCount == h.instanceCount && elapsedTime == h.elapsedTime && page == h.page
+					&& equal(messageFormat, h.messageFormat) && equal(encoding, h.encoding);
+		}
+
+		private static boolean equal(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+
+	// request header text before ByteBuffer codec
+	private static String concatenate(MessageHeader h) {
+		StringBuilder r = new StringBuilder(h.messageLength + " " + h.userId + " " + h.clientMessageId + " "
+				+ h.command.valueOf() + " " + h.exitCode);
+		if (h.type != StatementType.UNKNOWN)
+			r.append(" type " + h.type.getValue());
+		if (h.instanceCount >= 0)
+			r.append(" count " + h.instanceCount);
+		if (h.page > 0)
+			r.append(" page " + h.page);
+		if (h.messageFormat != null && !h.messageFormat.isEmpty())
+			r.append(" format " + h.messageFormat);
+		if (h.encoding != null && !h.encoding.isEmpty())
+			r.append(" encoding " + h.encoding);
+		return r.append('\n').toString();
+	}
+
+	private interface Operation {
+		long run(int i);
+	}
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static void measure(String name, Operation operation) {
+		long sink = 0;
+		for (int i = 0; i < WARMUP; ++i)
+			sink += operation.run(i);
+		long bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; ++i)
+			sink += operation.run(i);
+		long elapsed = System.nanoTime() - start;
+		bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+		System.out.printf("%-28s %8.1f ns/op %8.1f bytes/op   (%d)%n", name, (double) elapsed / ITERATIONS,
+				(double) bytes / ITERATIONS, sink & 1);
+	}
+
+	public static void main(String[] args) {
+		ByteBuffer[] lines = new ByteBuffer[REPLIES.length];
+		MessageHeader[] requests = new MessageHeader[REPLIES.length];
+		MessageHeader decoded = new MessageHeader(0, 0, 0);
+		for (int i = 0; i < REPLIES.length; ++i) {
+			// connection collects header line in byte array
+			lines[i] = ByteBuffer.wrap(REPLIES[i].getBytes(StandardCharsets.US_ASCII));
+			decoded.decode(lines[i]);
+			if (!new StringHeader(REPLIES[i]).sameAs(decoded))
+				throw new IllegalStateException("Decoded header differs: " + REPLIES[i]);
+			requests[i] = new MessageHeader(REPLIES[i]);
+			requests[i].setMessageFormat(i % 2 == 0 ? "json" : "keysql");
+			ByteBuffer out = ByteBuffer.allocate(requests[i].maxEncodedLength());
+			requests[i].encode(out);
+			String encoded = new String(out.array(), 0, out.position(), StandardCharsets.US_ASCII);
+			if (!encoded.equals(concatenate(requests[i])))
+				throw new IllegalStateException("Encoded header differs: " + encoded);
+		}
+		ByteBuffer out = ByteBuffer.allocateDirect(1024);
+		measure("parse String", i -> new StringHeader(REPLIES[i & 3]).clientMessageId);
+		measure("decode ByteBuffer", i -> {
+			ByteBuffer line = lines[i & 3];
+			line.position(0);
+			decoded.decode(line);
+			return decoded.clientMessageId;
+		});
+		measure("concatenate + getBytes", i -> concatenate(requests[i & 3]).getBytes().length);
+		measure("encode ByteBuffer", i -> {
+			out.clear();
+			requests[i & 3].encode(out);
+			return out.position();
+		});
+	}
+}
@@ -0,0 +1,215 @@
+package keysql.connector;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+//input is cut into chunks of whole instances on caller thread, chunks are
+//converted by pool workers. only braces outside strings are counted to find
+//instance ends, that is several times cheaper than parsing.
+//chunk cut inside root array is closed with ']' and next one is opened
+//with "[0", so both parse as arrays, 0 is skipped as any value that is not an object.
+//chunks in work are bounded. instance longer than MAX_CHUNK_SIZE, or input
+//which ends are not found in, is converted on caller thread with rest of input
+final class ParallelConversion {
+	// chars of one task, cut at first instance end after that
+	static final int CHUNK_SIZE = 64 * 1024;
+	// chars of chunk without instance end, then conversion goes on sequentially
+	static final int MAX_CHUNK_SIZE = 16 * CHUNK_SIZE;
+	private final IKeySQLJson converter;
+	private final ForkJoinPool pool;
+	private final boolean ordered;
+	// chunks submitted and not emitted
+	private final int maxPending;
+	private final AtomicLong count = new AtomicLong();
+	private Consumer<String> instances;
+	// ordered: results emitted by caller thread in input order
+	private final ArrayDeque<ForkJoinTask<List<String>>> pending = new ArrayDeque<>();
+	// unordered: workers pass instances to consumer themselves
+	private final Semaphore room;
+	// first failure of unordered worker, thrown to caller
+	private volatile RuntimeException failure;
+
+	ParallelConversion(IKeySQLJson converter, ForkJoinPool pool, boolean ordered) {
+		this.converter = converter;
+		this.pool = pool;
+		this.ordered = ordered;
+		this.maxPending = 2 * pool.getParallelism();
+		this.room = new Semaphore(maxPending);
+	}
+
+	long convert(Reader json, Consumer<String> instances) throws IOException {
+		this.instances = instances;
+		char[] chunk = new char[CHUNK_SIZE + CHUNK_SIZE / 4];
+		int length = 0;
+		// chars before this end whole instances
+		int end = 0;
+		int depth = 0;
+		// arrays open outside instances, now and at end
+		int arrays = 0;
+		int endArrays = 0;
+		boolean string = false;
+		boolean escape = false;
+		try {
+			for (;;) {
+				if (length == chunk.length) {
+					if (length >= MAX_CHUNK_SIZE) {
+						drain();
+						count.addAndGet(converter.convertInstances(new Remainder(chunk, length, json), instances));
+						return count.get();
+					}
+					chunk = Arrays.copyOf(chunk, chunk.length * 2);
+				}
+				int n = json.read(chunk, length, chunk.length - length);
+				if (n < 0)
+					break;
+				for (int i = length; i < length + n; ++i) {
+					char c = chunk[i];
+					if (escape)
+						escape = false;
+					else if (string) {
+						if (c == '\\')
+							escape = true;
+						else if (c == '"' || c == '\n')
+							string = false;
+					}
+					else if (c == '"')
+						string = true;
+					else if (c == '{')
+						++depth;
+					else if (c == '}' && depth > 0) {
+						if (--depth == 0) {
+							end = i + 1;
+							endArrays = arrays;
+						}
+					}
+					else if (depth == 0) {
+						if (c == '[')
+							++arrays;
+						else if (c == ']' && arrays > 0)
+							--arrays;
+					}
+				}
+				length += n;
+				if (end > 0 && (end >= CHUNK_SIZE || length == chunk.length)) {
+					int open = endArrays;
+					char[] next = new char[Math.max(CHUNK_SIZE + CHUNK_SIZE / 4, length - end + open + 1)];
+					int prefix = 0;
+					if (open > 0) {
+						while (prefix < open)
+							next[prefix++] = '[';
+						next[prefix++] = '0';
+					}
+					System.arraycopy(chunk, end, next, prefix, length - end);
+					if (chunk.length < end + open)
+						chunk = Arrays.copyOf(chunk, end + open);
+					for (int i = 0; i < open; ++i)
+						chunk[end + i] = ']';
+					submit(chunk, end + open);
+					chunk = next;
+					length += prefix - end;
+					end = 0;
+				}
+			}
+			if (length > 0)
+				submit(chunk, length);
+			drain();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Conversion interrupted", e);
+		}
+		return count.get();
+	}
+
+	private void submit(char[] chunk, int length) throws InterruptedException {
+		if (ordered) {
+			pending.add(pool.submit(() -> {
+				List<String> r = new ArrayList<>();
+				convert(chunk, length, r::add);
+				return r;
+			}));
+			if (pending.size() > maxPending)
+				emit(pending.poll());
+		} else {
+			room.acquire();
+			if (failure != null)
+				throw failure;
+			pool.execute(() -> {
+				try {
+					count.addAndGet(convert(chunk, length, instances));
+				} catch (RuntimeException e) {
+					if (failure == null)
+						failure = e;
+				} finally {
+					room.release();
+				}
+			});
+		}
+	}
+
+	private long convert(char[] chunk, int length, Consumer<String> to) {
+		try {
+			return converter.convertInstances(new CharArrayReader(chunk, 0, length), to);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void emit(ForkJoinTask<List<String>> task) {
+		List<String> r = task.join();
+		for (String instance : r)
+			instances.accept(instance);
+		count.addAndGet(r.size());
+	}
+
+	private void drain() throws InterruptedException {
+		if (ordered) {
+			while (!pending.isEmpty())
+				emit(pending.poll());
+		} else {
+			room.acquire(maxPending);
+			room.release(maxPending);
+			if (failure != null)
+				throw failure;
+		}
+	}
+
+	// chars of chunk, then rest of input
+	private static final class Remainder extends Reader {
+		private final char[] chunk;
+		private final int length;
+		private final Reader rest;
+		private int position;
+
+		Remainder(char[] chunk, int length, Reader rest) {
+			this.chunk = chunk;
+			this.length = length;
+			this.rest = rest;
+		}
+
+		@Override
+		public int read(char[] buffer, int off, int len) throws IOException {
+			if (position == length)
+				return rest.read(buffer, off, len);
+			int n = Math.min(len, length - position);
+			System.arraycopy(chunk, position, buffer, off, n);
+			position += n;
+			return n;
+		}
+
+		// input belongs to caller
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,12 @@
+package keysql.connector;
+
+//receives sizing decisions of connection pool,
+//called from client thread, so must not block
+public interface PoolListener {
+	enum Reason {
+		QUEUE_DEPTH, WAIT_TIME, IDLE_TIMEOUT, CONNECTION_LOST, RECONNECT
+	}
+	//size - established connections before decision
+	//change - connections opened (positive) or closed (negative)
+	public void poolResized(int size, int change, Reason reason);
+}
@@ -0,0 +1,10 @@
+package keysql.connector;
+
+//lane of statement in queue of event loop: interactive statements go first,
+//normal and bulk ones share the rest by weight, and bulk statements never
+//take the connections reserved by ConnectorOptions.setReservedConnections
+public enum Priority {
+	INTERACTIVE,
+	NORMAL,
+	BULK
+}
@@ -0,0 +1,102 @@
+package keysql.connector;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+//decodes reply body chunk by chunk as it is read from socket,
+//character split between two reads is kept until the rest arrives,
+//streamed reply takes decoded text after each chunk
+final class ReplyAssembler {
+	static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+	private static final int CARRY_SIZE = 16;
+	// chars allocated before body arrives, length in header is not trusted
+	private static final int INITIAL_SIZE = 64 * 1024;
+	private static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+	private final CharsetDecoder decoder;
+	private final ByteBuffer carry;
+	private CharBuffer chars;
+
+	// length - body size in bytes, reserve - chars to be appended after body
+	ReplyAssembler(String encoding, long length, int reserve) {
+		this.decoder = charset(encoding).newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.carry = ByteBuffer.allocate(CARRY_SIZE);
+		double expected = Math.ceil(Math.max(length, 0) * (double) decoder.maxCharsPerByte());
+		this.chars = CharBuffer.allocate((int) Math.min(expected, INITIAL_SIZE) + reserve);
+	}
+
+	static Charset charset(String encoding) {
+		if (encoding == null || encoding.isEmpty())
+			return DEFAULT_CHARSET;
+		try {
+			return Charset.forName(encoding);
+		} catch (IllegalArgumentException e) {
+			return DEFAULT_CHARSET;
+		}
+	}
+
+	// decode size bytes from chunk position
+	void append(ByteBuffer chunk, int size) {
+		int limit = chunk.limit();
+		chunk.limit(chunk.position() + size);
+		// complete character started in previous chunk
+		while (carry.position() > 0 && chunk.hasRemaining()) {
+			carry.put(chunk.get());
+			carry.flip();
+			decode(carry, false);
+			carry.compact();
+		}
+		decode(chunk, false);
+		// incomplete character at the end
+		if (chunk.hasRemaining())
+			carry.put(chunk);
+		chunk.limit(limit);
+	}
+
+	// text decoded since previous take, for streamed replies
+	String take() {
+		String s = new String(chars.array(), 0, chars.position());
+		chars.clear();
+		return s;
+	}
+
+	// all bytes are appended, suffix is added after decoded text
+	String finish(String suffix) {
+		carry.flip();
+		decode(carry, true);
+		carry.clear();
+		for (;;) {
+			CoderResult result = decoder.flush(chars);
+			if (!result.isOverflow())
+				break;
+			grow(1);
+		}
+		if (chars.remaining() < suffix.length())
+			grow(suffix.length());
+		chars.put(suffix);
+		return new String(chars.array(), 0, chars.position());
+	}
+
+	private void decode(ByteBuffer in, boolean endOfInput) {
+		for (;;) {
+			CoderResult result = decoder.decode(in, chars, endOfInput);
+			if (!result.isOverflow())
+				break;
+			grow(in.remaining());
+		}
+	}
+
+	private void grow(int needed) {
+		long size = Math.max(chars.capacity() * 2L, chars.position() + (long) needed + 1);
+		CharBuffer larger = CharBuffer.allocate((int) Math.min(size, MAX_SIZE));
+		chars.flip();
+		larger.put(chars);
+		chars = larger;
+	}
+}
@@ -5,6 +5,8 @@ public class ReplyMessage {
 	public final static short EXIT_CODE_WARNING = 300; //incorrect request
 	public final static short EXIT_CODE_SERVER_ERROR = 400;
 	public final static short EXIT_CODE_COMUNICATION_ERROR = 500;
+	public final static short EXIT_CODE_OVERLOADED = 503; //queue full, statement not sent
+	public final static short EXIT_CODE_TIMEOUT = 504; //no reply until deadline, statement aborted
 	private String reply;
 	private int userId;
 	private long count;
@@ -22,6 +24,15 @@ public class ReplyMessage {
 		this.jsonReply = header.jsonReply();
 		this.reply = reply;
 	}
+	ReplyMessage(ReplyMessage other,String reply) {
+		this.userId = other.userId;
+		this.count = other.count;
+		this.exitCode = other.exitCode;
+		this.type = other.type;
+		this.elapsedTime = other.elapsedTime;
+		this.jsonReply = other.jsonReply;
+		this.reply = reply;
+	}
 	public String getReply() {
 		return reply;
 	}
@@ -0,0 +1,90 @@
+package keysql.connector;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//reply of one statement handed to reader chunk by chunk as it arrives:
+//  try (ReplyStream stream = connector.stream(userId, "SELECT ...")) {
+//      for (String chunk; (chunk = stream.next()) != null;) ...
+//      ReplyMessage result = stream.getResult().get();
+//  }
+//at most ConnectorOptions.getStreamChunks() chunks wait for reader, then
+//connection stops reading from socket until reader takes half of them,
+//so reply of any size is read in constant memory
+public final class ReplyStream implements Closeable {
+	// marks end of chunks
+	private static final String END = new String();
+	private final CompletableFuture<ReplyMessage> result;
+	private final LinkedBlockingQueue<String> chunks;
+	private final int capacity;
+	// connection stopped reading for this stream
+	private final AtomicBoolean paused;
+	private volatile KeySQLClient client;
+	private volatile KeySQLConnection connection;
+	private boolean ended;
+
+	ReplyStream(int capacity) {
+		this.result = new CompletableFuture<>();
+		this.chunks = new LinkedBlockingQueue<>();
+		this.capacity = capacity;
+		this.paused = new AtomicBoolean(false);
+		// completed, failed or cancelled, after last chunk
+		result.whenComplete((reply, e) -> chunks.add(END));
+	}
+
+	//next chunk of reply text, blocks until it arrives, null when reply is complete
+	public String next() throws InterruptedException {
+		if (ended)
+			return null;
+		String chunk = chunks.take();
+		if (chunk == END) {
+			ended = true;
+			return null;
+		}
+		if (chunks.size() <= capacity / 2 && paused.compareAndSet(true, false))
+			client.resume(connection);
+		return chunk;
+	}
+
+	//exit code, instance count and time of statement, completes after last chunk.
+	//reply text is only in chunks
+	public CompletableFuture<ReplyMessage> getResult() {
+		return result;
+	}
+
+	//stop reading, statement is aborted and rest of reply is discarded
+	@Override
+	public void close() {
+		ended = true;
+		result.cancel(false);
+		chunks.clear();
+		if (paused.compareAndSet(true, false))
+			client.resume(connection);
+	}
+
+	// client thread: statement is assigned to connection
+	void attach(KeySQLClient client, KeySQLConnection connection) {
+		this.client = client;
+		this.connection = connection;
+	}
+
+	// client thread: statement left connection, reader must not resume it
+	void detach() {
+		paused.set(false);
+	}
+
+	// client thread: decoded chunk, false if connection must stop reading
+	boolean offer(String chunk, boolean last) {
+		if (result.isDone())
+			return true;
+		if (!chunk.isEmpty())
+			chunks.add(chunk);
+		if (last || chunks.size() < capacity)
+			return true;
+		paused.set(true);
+		// reader may have taken chunks meanwhile
+		return chunks.size() <= capacity / 2 && paused.compareAndSet(true, false);
+	}
+}
@@ -0,0 +1,96 @@
+package keysql.connector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+//encodes queued requests of a connection into its direct output buffer
+//and writes them as socket accepts, request larger than buffer is
+//encoded piece by piece and partial writes resume on next OP_WRITE
+final class RequestWriter {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private final CharsetEncoder encoder;
+	// encoded bytes not yet written, in read mode between calls
+	private ByteBuffer output;
+	// rest of request being encoded
+	private CharBuffer body;
+
+	RequestWriter() {
+		this.encoder = StandardCharsets.UTF_8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	// bytes of request in UTF-8, as encoder writes them
+	static long encodedLength(String request) {
+		long length = 0;
+		int n = request.length();
+		for (int i = 0; i < n; ++i) {
+			char c = request.charAt(i);
+			if (c < 0x80) {
+				++length;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(request.charAt(i + 1))) {
+				length += 4;
+				++i;
+			} else if (Character.isSurrogate(c)) {
+				// unpaired surrogate is replaced by '?'
+				++length;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	// nothing is left to write of requests taken from queue
+	boolean idle() {
+		return body == null && (output == null || !output.hasRemaining());
+	}
+
+	// true when all queued requests are written, false if socket is full
+	boolean write(SocketChannel channel, ArrayDeque<StatementSession> queue) throws IOException {
+		if (output == null) {
+			output = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			output.flip();
+		}
+		for (;;) {
+			fill(queue);
+			if (!output.hasRemaining())
+				return true;
+			channel.write(output);
+			if (output.hasRemaining())
+				return false;
+		}
+	}
+
+	// encode queued requests after unwritten bytes until buffer is full,
+	// several small requests go out in one write
+	private void fill(ArrayDeque<StatementSession> queue) {
+		output.compact();
+		while (output.hasRemaining()) {
+			if (body == null) {
+				StatementSession session = queue.peek();
+				if (session == null)
+					break;
+				MessageHeader header = session.getMessageHeader();
+				if (output.remaining() < header.maxEncodedLength())
+					break;
+				header.encode(output);
+				queue.poll();
+				body = CharBuffer.wrap(session.getRequest());
+				encoder.reset();
+			}
+			if (encoder.encode(body, output, true).isOverflow() || encoder.flush(output).isOverflow())
+				break;
+			body = null;
+		}
+		output.flip();
+	}
+}
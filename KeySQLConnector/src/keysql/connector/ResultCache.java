@@ -0,0 +1,221 @@
+package keysql.connector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+//replies of SELECT and SHOW statements by user, format and statement text,
+//least recently used entry is evicted when full, entries expire after ttl.
+//statements changing a store remove entries reading it, CREATE, DROP and
+//statements whose store is not known remove all entries.
+//replies of reads sent before a change that was not replied yet are not kept,
+//as they may have been served before or after it
+class ResultCache {
+	private final int maxSize;
+	private final long ttlNanos;
+	// access order, eldest is least recently used
+	private final LinkedHashMap<String, Entry> entries;
+	// store name -> keys of entries reading it
+	private final Map<String, Set<String>> byStore = new HashMap<>();
+	// counts changes sent and replied
+	private long generation = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long invalidations = 0;
+
+	private static final class Entry {
+		final ReplyMessage reply;
+		final List<String> stores;
+		final long expires;
+
+		Entry(ReplyMessage reply, List<String> stores, long expires) {
+			this.reply = reply;
+			this.stores = stores;
+			this.expires = expires;
+		}
+	}
+
+	ResultCache(int maxSize, long ttlNanos) {
+		this.maxSize = maxSize;
+		this.ttlNanos = ttlNanos;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	//null for statement that is not cached
+	static String key(int userId, boolean jsonReply, String statement) {
+		StatementType type = ConnectorHelper.statementType(statement);
+		if (type != StatementType.SELECT && type != StatementType.SHOW)
+			return null;
+		StringBuilder r = new StringBuilder(statement.length() + 16);
+		r.append(userId).append(jsonReply ? 'j' : 't');
+		// whitespace outside of values is collapsed, trailing semicolon dropped
+		boolean value = false, space = true;
+		for (int i = 0; i < statement.length(); ++i) {
+			char c = statement.charAt(i);
+			if (c == '\'')
+				value = !value;
+			if (!value && Character.isWhitespace(c)) {
+				space = true;
+				continue;
+			}
+			if (space) {
+				r.append(' ');
+				space = false;
+			}
+			r.append(c);
+		}
+		int end = r.length();
+		while (end > 0 && (r.charAt(end - 1) == ';' || r.charAt(end - 1) == ' '))
+			--end;
+		r.setLength(end);
+		return r.toString();
+	}
+
+	synchronized ReplyMessage get(String key) {
+		Entry entry = entries.get(key);
+		if (entry != null && entry.expires - System.nanoTime() <= 0) {
+			remove(key);
+			entry = null;
+		}
+		if (entry == null) {
+			++misses;
+			return null;
+		}
+		++hits;
+		return entry.reply;
+	}
+
+	//generation to pass to put when read is sent
+	synchronized long generation() {
+		return generation;
+	}
+
+	//kept if successful and nothing changed since read was sent
+	synchronized void put(String key, String statement, ReplyMessage reply, long sent) {
+		if (sent != generation || reply.getExitCode() != ReplyMessage.EXIT_CODE_SUCCESS)
+			return;
+		List<String> stores = readStores(statement);
+		if (stores == null)
+			return;
+		if (entries.containsKey(key))
+			remove(key);
+		entries.put(key, new Entry(reply, stores, System.nanoTime() + ttlNanos));
+		for (String store : stores)
+			byStore.computeIfAbsent(store, s -> new HashSet<>()).add(key);
+		if (entries.size() > maxSize) {
+			remove(entries.keySet().iterator().next());
+			++evictions;
+		}
+	}
+
+	//called when statement changing data is sent and again when it replied
+	synchronized void invalidate(String statement) {
+		++generation;
+		String store = changedStore(statement);
+		if (store == null) {
+			invalidations += entries.size();
+			entries.clear();
+			byStore.clear();
+			return;
+		}
+		Set<String> keys = byStore.remove(store);
+		if (keys == null)
+			return;
+		for (String key : new ArrayList<>(keys)) {
+			remove(key);
+			++invalidations;
+		}
+	}
+
+	synchronized CacheStatistics getStatistics() {
+		return new CacheStatistics(entries.size(), hits, misses, evictions, invalidations);
+	}
+
+	private void remove(String key) {
+		Entry entry = entries.remove(key);
+		if (entry == null)
+			return;
+		for (String store : entry.stores) {
+			Set<String> keys = byStore.get(store);
+			if (keys != null && keys.remove(key) && keys.isEmpty())
+				byStore.remove(store);
+		}
+	}
+
+	//stores named after FROM of SELECT, or after SHOW STORE,
+	//empty for other SHOW, null if SELECT names none
+	private static List<String> readStores(String statement) {
+		List<String> words = words(statement);
+		List<String> r = new ArrayList<>(1);
+		if (words.get(0).equals("show")) {
+			if (words.size() > 2 && words.get(1).equals("store"))
+				r.add(words.get(2));
+			return r;
+		}
+		for (int i = 0; i < words.size() - 1; ++i) {
+			if (words.get(i).equals("from") || words.get(i).equals("join")) {
+				r.add(words.get(i + 1));
+				// from a, b
+				for (i += 2; i < words.size() - 1 && words.get(i).equals(","); i += 2)
+					r.add(words.get(i + 1));
+				--i;
+			}
+		}
+		return r.isEmpty() ? null : r;
+	}
+
+	//store of INSERT INTO, DELETE FROM or UPDATE, null for others
+	private static String changedStore(String statement) {
+		StatementType type = ConnectorHelper.statementType(statement);
+		if (type != StatementType.INSERT && type != StatementType.DELETE && type != StatementType.UPDATE)
+			return null;
+		List<String> words = words(statement);
+		int at = type == StatementType.UPDATE ? 1 : 2;
+		if (words.size() <= at || (type != StatementType.UPDATE && !words.get(1).equals(type == StatementType.INSERT ? "into" : "from")))
+			return null;
+		String store = words.get(at);
+		return Character.isLetterOrDigit(store.charAt(0)) || store.charAt(0) == '_' ? store : null;
+	}
+
+	//lower case names and commas outside of values, up to first brace
+	private static List<String> words(String statement) {
+		List<String> r = new ArrayList<>();
+		int i = 0, n = statement.length();
+		while (i < n) {
+			char c = statement.charAt(i);
+			if (c == '{' || c == '[' || c == ';')
+				break;
+			if (c == '\'') {
+				int end = statement.indexOf('\'', i + 1);
+				i = end < 0 ? n : end + 1;
+				continue;
+			}
+			if (Character.isLetterOrDigit(c) || c == '_') {
+				int start = i;
+				while (i < n && (Character.isLetterOrDigit(statement.charAt(i)) || statement.charAt(i) == '_'))
+					++i;
+				r.add(statement.substring(start, i).toLowerCase(Locale.ROOT));
+				continue;
+			}
+			if (c == ',')
+				r.add(",");
+			++i;
+		}
+		if (r.isEmpty())
+			r.add("");
+		return r;
+	}
+
+	//entries removed without counting as invalidated
+	synchronized void clear() {
+		++generation;
+		entries.clear();
+		byStore.clear();
+	}
+}
@@ -0,0 +1,33 @@
+package keysql.connector;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//replies of statements submitted together, completed once when all arrived
+final class StatementBatch {
+	private final CompletableFuture<ReplyMessage[]> promise;
+	private final ReplyMessage[] replies;
+	private final AtomicInteger pending;
+
+	StatementBatch(int size) {
+		this.promise = new CompletableFuture<>();
+		this.replies = new ReplyMessage[size];
+		this.pending = new AtomicInteger(size);
+		if (size == 0)
+			promise.complete(replies);
+	}
+
+	CompletableFuture<ReplyMessage[]> getPromise() {
+		return promise;
+	}
+
+	boolean isCancelled() {
+		return promise.isCancelled();
+	}
+
+	void complete(int index, ReplyMessage reply) {
+		replies[index] = reply;
+		if (pending.decrementAndGet() == 0)
+			promise.complete(replies);
+	}
+}
@@ -1,34 +1,118 @@
 package keysql.connector;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.CompletableFuture;
 
 final class StatementSession {
 	private static final String SELECT_INDENT = "  ";
+	// room for result line appended after reply
+	private static final int RESULT_LINE_SIZE = 64;
+	// chars decoded at once for streamed reply, as much as one socket read
+	private static final int STREAM_CHUNK_SIZE = 64 * 1024;
 	private final String request;
 	private final CompletableFuture<ReplyMessage> promise;
+	// reader of streamed reply, null if reply is collected
+	private final ReplyStream stream;
+	// batch completed instead of promise, null for single statement
+	private final StatementBatch batch;
+	private final int batchIndex;
 	private MessageHeader header;
-	private StringBuffer replyBuffer;
-	private long readSize;
+	// reply text, decoded as it is read
+	private ReplyAssembler reply;
 	private long readBytes;
+	private final long queuedTime;
+	// System.nanoTime() after which statement is aborted, if timed
+	private long deadline;
+	private boolean timed;
+	private Priority priority = Priority.NORMAL;
+	// client thread: connection taking the statement, and reply given to promise
+	private KeySQLConnection connection;
+	private boolean finished;
+	// times statement was sent again after its connection was lost
+	private int retries;
 	public StatementSession(int userId, long id, String request, boolean jsonReply, CompletableFuture<ReplyMessage> promise) {
+		this(userId, id, request, jsonReply, promise, null, null, 0);
+	}
+	public StatementSession(int userId, long id, String request, boolean jsonReply, ReplyStream stream) {
+		this(userId, id, request, jsonReply, stream.getResult(), stream, null, 0);
+	}
+	public StatementSession(int userId, long id, String request, boolean jsonReply, StatementBatch batch, int index) {
+		this(userId, id, request, jsonReply, null, null, batch, index);
+	}
+	private StatementSession(int userId, long id, String request, boolean jsonReply,
+			CompletableFuture<ReplyMessage> promise, ReplyStream stream, StatementBatch batch, int index) {
 		this.request = request;
 		this.promise = promise;
-		this.header = new MessageHeader(request.length(),userId, id);
+		this.stream = stream;
+		this.batch = batch;
+		this.batchIndex = index;
+		this.header = new MessageHeader(RequestWriter.encodedLength(request),userId, id);
 		this.header.setMessageFormat(jsonReply ? "json" : "keysql");
-		this.replyBuffer = new StringBuffer((int)header.getMessageLength());
-		this.readSize = 0;
 		this.readBytes = 0;
+		this.queuedTime = System.nanoTime();
+	}
+	//ABORT of statement sent on its connection, no reply is expected
+	static StatementSession abort(StatementSession session) {
+		StatementSession r = new StatementSession(0, 0, "", false, null, null, null, 0);
+		r.header = new MessageHeader(0, session.header.getUserId(), session.header.getClientMessageId(),
+				TransactionCommand.ABORT);
+		return r;
 	}
 	public void setPromise(boolean formatedReply) {
-		if (!promise.isCancelled()) {
-			promise.complete(new ReplyMessage(header, formatedReply ? getFormatedReply() : replyBuffer.toString()));
+		finished = true;
+		if (!promiseCancelled()) {
+			ReplyMessage reply = new ReplyMessage(header, formatedReply && stream == null ? getFormatedReply() : "");
+			if (batch != null)
+				batch.complete(batchIndex, reply);
+			else
+				promise.complete(reply);
 		}
 	}
 	public void setPromise() {
 		setPromise(false);
 	}
 	public boolean promiseCancelled() {
-		return promise.isCancelled();
+		return batch != null ? batch.isCancelled() : promise.isCancelled();
+	}
+	//future whose cancel aborts this statement
+	CompletableFuture<?> cancellable() {
+		return batch != null ? batch.getPromise() : promise;
+	}
+	public long getQueuedTime() {
+		return queuedTime;
+	}
+	void setDeadline(long deadline) {
+		this.deadline = deadline;
+		this.timed = true;
+	}
+	void setPriority(Priority priority) {
+		this.priority = priority;
+	}
+	Priority getPriority() {
+		return priority;
+	}
+	boolean isTimed() {
+		return timed;
+	}
+	long getDeadline() {
+		return deadline;
+	}
+	void setConnection(KeySQLConnection connection) {
+		this.connection = connection;
+	}
+	KeySQLConnection getConnection() {
+		return connection;
+	}
+	boolean isFinished() {
+		return finished;
+	}
+	int getRetries() {
+		return retries;
+	}
+	//connection was lost before reply started, statement waits for another one
+	void requeue() {
+		connection = null;
+		++retries;
 	}
 	public String getRequest() {
 		return request;
@@ -39,31 +123,50 @@ final class StatementSession {
 	public MessageHeader getMessageHeader() {
 		return header;
 	}
-	public StringBuffer getReplyBuffer() {
-		return replyBuffer;
+	public ReplyStream getStream() {
+		return stream;
 	}
-	public void appendReply(final String chunk, long chunkSize) {
-		replyBuffer.append(chunk);
-		this.readBytes += chunkSize; 
-		this.readSize += chunk.length();
+	//decode chunkSize bytes from read buffer in reply header encoding,
+	//false if streamed reply waits for its reader
+	public boolean appendReply(ByteBuffer chunk, int chunkSize) {
+		if (reply == null)
+			reply = stream == null
+					? new ReplyAssembler(header.getEncoding(), header.getMessageLength(), RESULT_LINE_SIZE)
+					: new ReplyAssembler(header.getEncoding(), Math.min(header.getMessageLength(), STREAM_CHUNK_SIZE), 0);
+		reply.append(chunk, chunkSize);
+		this.readBytes += chunkSize;
+		if (stream == null)
+			return true;
+		return stream.offer(reply.take(), header.getMessageLength() <= readBytes);
 	}
 	public boolean complete() {
 		if (header.getMessageLength() <= this.readBytes) {
+			if (stream != null && reply != null) {
+				// bytes of incomplete character at the end
+				stream.offer(reply.finish(""), true);
+				reply = null;
+			}
 			setPromise(true); // parameter true (formated reply) for keyark/query demo only!
 			                  // must set as query parameter in general
 			return true;
 		}
 		return false;
 	}
+	//reply of this statement followed by suffix
+	private String ownReply(String suffix) {
+		if (reply == null)
+			return suffix;
+		String s = reply.finish(suffix);
+		reply = null;
+		return s;
+	}
 	private String getFormatedReply() {
 		if (ExitStatus.EXIT_SUCCESS.valueOf() == header.getExitCode() && 
 				header.getStatementType() == StatementType.SELECT)
 		{
-			int ownLength = replyBuffer.length() - (int)this.readSize;
-			return replyBuffer.substring(0, ownLength) + 
-					ConnectorHelper.formatSelectReply(replyBuffer.substring(ownLength),SELECT_INDENT, header.jsonReply())
+			return ConnectorHelper.formatSelectReply(ownReply(""),SELECT_INDENT, header.jsonReply())
 					 + header.getResultLine();
 		}
-		return replyBuffer.append(header.getResultLine()).append('\n').toString();
+		return ownReply(header.getResultLine().concat("\n"));
 	}
 }
@@ -0,0 +1,67 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ConnectorOptions;
+import keysql.connector.ReplyMessage;
+
+//bytes allocated by client threads per MB of reply received
+public class AllocationBenchmark {
+	private static final int REPLY_SIZE = 4 << 20;
+	private static final int WARMUP = 5;
+	private static final int ITERATIONS = 20;
+	private static MockServer server;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		StringBuilder reply = new StringBuilder(REPLY_SIZE);
+		while (reply.length() < REPLY_SIZE)
+			reply.append("{TITLE:'After Dark in Central Park',YEAR:1900},\n");
+		final String body = reply.toString();
+		server = new MockServer(request -> body);
+		Connector.createInstance("127.0.0.1", server.getPort(), new ConnectorOptions().setMinPoolSize(1));
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		Connector.getInstance().stopClient();
+		server.close();
+	}
+
+	@Test
+	public void bytesPerMegabyte() throws Exception {
+		Connector connector = Connector.getInstance();
+		for (int i = 0; i < WARMUP; ++i)
+			connector.submit(0, "select * from big_store").get();
+		long before = clientAllocatedBytes();
+		long received = 0;
+		for (int i = 0; i < ITERATIONS; ++i) {
+			ReplyMessage reply = connector.submit(0, "select * from big_store").get();
+			assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, reply.getExitCode());
+			received += REPLY_SIZE;
+		}
+		long allocated = clientAllocatedBytes() - before;
+		System.out.println("client thread allocated " + allocated / (received >> 20) + " bytes per MB received");
+	}
+
+	private static long clientAllocatedBytes() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		List<Long> ids = new ArrayList<>();
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+			if (thread.getName().startsWith("keysql-client"))
+				ids.add(thread.getId());
+		long total = 0;
+		for (long id : ids)
+			total += threads.getThreadAllocatedBytes(id);
+		return total;
+	}
+}
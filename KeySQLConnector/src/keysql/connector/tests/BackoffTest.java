@@ -0,0 +1,102 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ReplyMessage;
+
+public class BackoffTest {
+	private static final long SLOW_MILLIS = 300;
+
+	private static Connector connector(MockServer server, int poolSize) {
+		return Connector.builder().host("127.0.0.1").port(server.getPort()).minPoolSize(poolSize)
+				.maxPoolSize(poolSize).reconnectBackoff(20, 200).build();
+	}
+
+	private static int count(MockServer server, String body) {
+		int r = 0;
+		for (MockServer.Request request : server.getRequests())
+			if (request.body.equals(body))
+				++r;
+		return r;
+	}
+
+	@Test
+	public void lostConnectionsAreOpenedAgain() throws Exception {
+		try (MockServer server = new MockServer(); Connector connector = connector(server, 2)) {
+			assertEquals("show store a\n", connector.submit(0, "show store a").get().getReply());
+			long connections = server.getConnections();
+			server.dropConnections();
+			long start = System.nanoTime();
+			// no statement needs them, pool comes back in background
+			while (server.getConnections() < connections + 2 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5))
+				Thread.sleep(5);
+			assertEquals(connections + 2, server.getConnections());
+			assertEquals("show store b\n", connector.submit(0, "show store b").get().getReply());
+		}
+	}
+
+	@Test
+	public void readsInFlightAreSentAgain() throws Exception {
+		AtomicInteger drops = new AtomicInteger();
+		MockServer[] holder = new MockServer[1];
+		try (MockServer server = new MockServer(request -> {
+			if (request.body.equals("select drop") && drops.getAndIncrement() == 0) {
+				// server goes away before replying
+				holder[0].dropConnections();
+				return null;
+			}
+			if (request.body.startsWith("insert"))
+				Thread.sleep(SLOW_MILLIS);
+			return request.body;
+		}); Connector connector = connector(server, 2)) {
+			holder[0] = server;
+			CompletableFuture<ReplyMessage> insert = connector.submit(0, "insert into t {}");
+			while (count(server, "insert into t {}") == 0)
+				Thread.sleep(1);
+			ReplyMessage select = connector.submit(0, "select drop").get();
+			assertEquals("select drop\n", select.getReply());
+			assertEquals(2, count(server, "select drop"));
+			// change may have been done, it is not sent again
+			assertEquals(ReplyMessage.EXIT_CODE_COMUNICATION_ERROR, insert.get().getExitCode());
+			assertEquals(1, count(server, "insert into t {}"));
+		}
+	}
+
+	@Test
+	public void downServerFailsFastAndIsReconnected() throws Exception {
+		MockServer server = new MockServer();
+		short port = server.getPort();
+		try (Connector connector = connector(server, 1)) {
+			assertEquals("show store a\n", connector.submit(0, "show store a").get().getReply());
+			server.close();
+			long start = System.nanoTime();
+			ReplyMessage down = connector.submit(0, "show store b").get();
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			assertEquals(ReplyMessage.EXIT_CODE_COMUNICATION_ERROR, down.getExitCode());
+			// four attempts, 10 to 20, 20 to 40 and 40 to 80 ms apart
+			assertTrue("failed after " + elapsed + " ms", elapsed < 1000);
+			try (MockServer restarted = new MockServer(request -> request.body, port)) {
+				start = System.nanoTime();
+				ReplyMessage reply;
+				do {
+					Thread.sleep(10);
+					reply = connector.submit(0, "show store c").get();
+				} while (reply.getExitCode() != ReplyMessage.EXIT_CODE_SUCCESS
+						&& System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+				elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				assertEquals("show store c\n", reply.getReply());
+				assertTrue(restarted.getConnections() > 0);
+				// next probe is at most max backoff away
+				assertTrue("reconnected after " + elapsed + " ms", elapsed < 1000);
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ConnectorOptions;
+import keysql.connector.ReplyMessage;
+
+//same statements submitted one by one and as batches: rate, and bytes
+//allocated per statement by caller and client threads
+public class BatchBenchmark {
+	private static final int STATEMENTS = 20000;
+	private static final int BATCH = 500;
+	private static final int ROUNDS = 3;
+	private static MockServer server;
+	private static List<String> statements;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = new MockServer();
+		Connector.createInstance("127.0.0.1", server.getPort(),
+				new ConnectorOptions().setMinPoolSize(4).setMaxPoolSize(4).setPipelineDepth(16));
+		statements = new ArrayList<>();
+		for (int i = 0; i < STATEMENTS; ++i)
+			statements.add("insert into s {\"id\":" + i + "}");
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		Connector.getInstance().stopClient();
+		server.close();
+	}
+
+	@Test
+	public void batchAgainstSingle() throws Exception {
+		// warm up
+		single();
+		batches();
+		for (int round = 0; round < ROUNDS; ++round) {
+			report("single", single());
+			report("batch", batches());
+		}
+	}
+
+	private static void report(String name, long[] result) {
+		System.out.println(name + ": " + STATEMENTS * 1000000000L / result[0] + " statements/sec, "
+				+ result[1] / STATEMENTS + " bytes/statement");
+	}
+
+	// elapsed nanos and allocated bytes
+	private static long[] single() throws Exception {
+		Connector connector = Connector.getInstance();
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		List<CompletableFuture<ReplyMessage>> futures = new ArrayList<>(BATCH);
+		for (int i = 0; i < STATEMENTS; i += BATCH) {
+			for (int n = i; n < i + BATCH; ++n)
+				futures.add(connector.submit(0, statements.get(n)));
+			for (int n = 0; n < BATCH; ++n)
+				assertEquals(statements.get(i + n) + "\n", futures.get(n).get().getReply());
+			futures.clear();
+		}
+		return new long[] { System.nanoTime() - start, allocatedBytes() - bytes };
+	}
+
+	private static long[] batches() throws Exception {
+		Connector connector = Connector.getInstance();
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < STATEMENTS; i += BATCH) {
+			ReplyMessage[] replies = connector.submitBatch(0, statements.subList(i, i + BATCH)).get();
+			for (int n = 0; n < BATCH; ++n)
+				assertEquals(statements.get(i + n) + "\n", replies[n].getReply());
+		}
+		return new long[] { System.nanoTime() - start, allocatedBytes() - bytes };
+	}
+
+	private static long allocatedBytes() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long total = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+			if (thread.getName().startsWith("keysql-client"))
+				total += threads.getThreadAllocatedBytes(thread.getId());
+		return total;
+	}
+}
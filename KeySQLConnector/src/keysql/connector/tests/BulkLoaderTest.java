@@ -0,0 +1,133 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.BulkLoadResult;
+import keysql.connector.BulkLoader;
+import keysql.connector.Connector;
+import keysql.connector.KeySQLJson;
+import keysql.connector.ReplyMessage;
+
+public class BulkLoaderTest {
+	private static final int ABORT = 2;
+	private static final String SCHEMA = "{\"type\":\"object\",\"properties\":{"
+			+ "\"name\":{\"type\":\"string\"},\"n\":{\"type\":\"integer\"}}}";
+	private static MockServer server;
+	private static final AtomicInteger active = new AtomicInteger();
+	private static final AtomicInteger maxActive = new AtomicInteger();
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = new MockServer(request -> {
+			// server does not reply to abort, nor to batch it can not insert
+			if (request.command == ABORT || request.body.contains("'bad'"))
+				return null;
+			maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+			Thread.sleep(20);
+			active.decrementAndGet();
+			return "";
+		});
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		server.close();
+	}
+
+	private static String instances(int n, int bad) {
+		StringBuilder r = new StringBuilder("[");
+		for (int i = 0; i < n; ++i)
+			r.append(i == 0 ? "" : ",").append("{\"name\":\"").append(i == bad ? "bad" : "i" + i).append("\",\"n\":")
+					.append(i).append('}');
+		return r.append(']').toString();
+	}
+
+	private static List<String> inserts(String store) {
+		List<String> r = new ArrayList<>();
+		for (MockServer.Request request : server.getRequests())
+			if (request.body.startsWith("INSERT INTO " + store + " INSTANCES\n"))
+				r.add(request.body);
+		return r;
+	}
+
+	@Test
+	public void batchesAreBoundedAndFailuresReported() throws Exception {
+		try (Connector connector = Connector.builder().host("127.0.0.1").port(server.getPort()).minPoolSize(4)
+				.build()) {
+			AtomicLong replied = new AtomicLong();
+			maxActive.set(0);
+			BulkLoadResult result = BulkLoader.builder(connector, new KeySQLJson(SCHEMA, "item"), "a")
+					.batchInstances(5).maxInFlight(2).timeoutMillis(300)
+					.listener((first, count, reply) -> replied.addAndGet(count)).build()
+					.load(new StringReader(instances(25, 12)));
+			assertEquals(25, result.getInstances());
+			assertEquals(5, result.getBatches());
+			assertEquals(20, result.getInsertedInstances());
+			assertEquals(25, replied.get());
+			assertEquals(1, result.getFailures().size());
+			BulkLoadResult.Failure failure = result.getFailures().get(0);
+			assertEquals(10, failure.getFirst());
+			assertEquals(5, failure.getCount());
+			assertEquals(ReplyMessage.EXIT_CODE_TIMEOUT, failure.getReply().getExitCode());
+			List<String> inserts = inserts("a");
+			assertEquals(5, inserts.size());
+			for (String insert : inserts)
+				assertEquals(6, insert.split("\n").length);
+			assertTrue("in flight " + maxActive.get(), maxActive.get() <= 2);
+		}
+	}
+
+	@Test
+	public void batchBytesBoundStatement() throws Exception {
+		try (Connector connector = Connector.builder().host("127.0.0.1").port(server.getPort()).minPoolSize(1)
+				.build()) {
+			// INSERT line is 24 bytes, small instances are 22 and separators 2,
+			// first one is bigger than batch
+			String json = "{\"name\":\"" + new String(new char[40]).replace('\0', 'x') + "\",\"n\":0}"
+					+ instances(4, -1).replace('[', ',').replace(']', ' ');
+			BulkLoadResult result = BulkLoader.builder(connector, new KeySQLJson(SCHEMA, "item"), "b")
+					.batchBytes(80).build().load(new StringReader(json));
+			assertEquals(5, result.getInstances());
+			assertEquals(3, result.getBatches());
+			assertEquals(5, result.getInsertedInstances());
+			List<String> inserts = inserts("b");
+			assertEquals(2, inserts.get(0).split("\n").length);
+			assertEquals(3, inserts.get(1).split("\n").length);
+			// statements as sent fit in batch, a third instance would not
+			for (int i = 1; i < 3; ++i)
+				assertEquals(70, inserts.get(i).getBytes(StandardCharsets.UTF_8).length);
+		}
+	}
+
+	@Test
+	public void interruptedLoad() throws Exception {
+		try (Connector connector = Connector.builder().host("127.0.0.1").port(server.getPort()).minPoolSize(1)
+				.build()) {
+			BulkLoader loader = BulkLoader.builder(connector, new KeySQLJson(SCHEMA, "item"), "c").build();
+			// single batch is submitted after input ends
+			Thread.currentThread().interrupt();
+			try {
+				loader.load(new ByteArrayInputStream(instances(3, -1).getBytes(StandardCharsets.UTF_8)));
+				fail("load was not interrupted");
+			} catch (InterruptedException e) {
+				assertFalse(Thread.interrupted());
+			}
+			assertEquals(3, loader.load(new StringReader(instances(3, -1))).getInsertedInstances());
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.CacheStatistics;
+import keysql.connector.Connector;
+import keysql.connector.ReplyMessage;
+
+public class CacheTest {
+	private static final long TTL_MILLIS = 300;
+	private static MockServer server;
+	// reply differs each time statement reaches server
+	private static final AtomicLong served = new AtomicLong();
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = new MockServer(request -> served.incrementAndGet() + " " + request.body);
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		server.close();
+	}
+
+	private static Connector connector(int size) {
+		return connector(size, TTL_MILLIS);
+	}
+
+	private static Connector connector(int size, long ttlMillis) {
+		return Connector.builder().host("127.0.0.1").port(server.getPort()).minPoolSize(1).cache(size, ttlMillis)
+				.build();
+	}
+
+	@Test
+	public void repeatedReadsAreNotSent() throws Exception {
+		try (Connector connector = connector(100)) {
+			ReplyMessage first = connector.submit(0, "select * from world_bank_store limit 100").get();
+			int sent = server.getRequests().size();
+			// same statement written differently
+			assertSame(first, connector.submit(0, "select  *\nfrom world_bank_store limit 100;").get());
+			assertSame(first, connector.submitScriptAsync(0, new String[] { "select * from world_bank_store limit 100" })
+					.get()[0]);
+			assertEquals(sent, server.getRequests().size());
+			// other user and other format are kept apart
+			assertNotEquals(first.getReply(), connector.submit(1, "select * from world_bank_store limit 100").get().getReply());
+			assertNotEquals(first.getReply(), connector.submit(0, "select * from world_bank_store limit 100", true).get().getReply());
+			// values are compared as written
+			ReplyMessage red = connector.submit(0, "select ball from billiard_store where :color = 'red'").get();
+			assertNotEquals(red.getReply(), connector.submit(0, "select ball from billiard_store where :color = 'red '").get().getReply());
+			CacheStatistics statistics = connector.getCacheStatistics();
+			assertEquals(2, statistics.getHits());
+			assertEquals(5, statistics.getMisses());
+			assertEquals(5, statistics.getSize());
+		}
+	}
+
+	@Test
+	public void longCachedScript() throws Exception {
+		try (Connector connector = connector(100, 60000)) {
+			String[] script = new String[20000];
+			Arrays.fill(script, "select * from world_bank_store limit 100");
+			ReplyMessage first = connector.submit(0, script[0]).get();
+			// replies that are there at once do not nest callbacks
+			ReplyMessage[] replies = connector.submitScriptAsync(0, script).get();
+			assertEquals(script.length, replies.length);
+			assertSame(first, replies[script.length - 1]);
+		}
+	}
+
+	@Test
+	public void hitTime() throws Exception {
+		try (Connector connector = connector(100, 60000)) {
+			connector.submit(0, "select * from world_bank_store limit 100").get();
+			int sent = server.getRequests().size();
+			long start = System.nanoTime();
+			for (int i = 0; i < 100000; ++i)
+				connector.submit(0, "select * from world_bank_store limit 100").get();
+			System.out.println("cache hit: " + (System.nanoTime() - start) / 100000 + " ns");
+			assertEquals(sent, server.getRequests().size());
+			assertEquals(100000, connector.getCacheStatistics().getHits());
+		}
+	}
+
+	@Test
+	public void changeRemovesReadsOfItsStore() throws Exception {
+		try (Connector connector = connector(100)) {
+			String rooms = connector.submit(0, "select * from rooms").get().getReply();
+			String balls = connector.submit(0, "select * from billiard_store").get().getReply();
+			String store = connector.submit(0, "show store billiard_store").get().getReply();
+			String catalog = connector.submit(0, "show catalog universe").get().getReply();
+			connector.submit(0, "insert into billiard_store {\"ball\":1}").get();
+			assertEquals(rooms, connector.submit(0, "select * from rooms").get().getReply());
+			assertEquals(catalog, connector.submit(0, "show catalog universe").get().getReply());
+			assertNotEquals(balls, connector.submit(0, "select * from billiard_store").get().getReply());
+			assertNotEquals(store, connector.submit(0, "show store billiard_store").get().getReply());
+			assertEquals(2, connector.getCacheStatistics().getInvalidations());
+			// batch changes too
+			connector.submitBatch(0, Arrays.asList("update rooms set {\"size\":2}")).get();
+			assertNotEquals(rooms, connector.submit(0, "select * from rooms").get().getReply());
+			// schema change removes all
+			connector.submit(0, "drop store rooms").get();
+			assertNotEquals(catalog, connector.submit(0, "show catalog universe").get().getReply());
+		}
+	}
+
+	@Test
+	public void leastRecentlyUsedAndExpiredAreDropped() throws Exception {
+		try (Connector connector = connector(2)) {
+			String a = connector.submit(0, "select * from a").get().getReply();
+			String b = connector.submit(0, "select * from b").get().getReply();
+			assertEquals(a, connector.submit(0, "select * from a").get().getReply());
+			connector.submit(0, "select * from c").get();
+			// b was least recently used
+			assertNotEquals(b, connector.submit(0, "select * from b").get().getReply());
+			assertEquals(2, connector.getCacheStatistics().getEvictions());
+			assertEquals(2, connector.getCacheStatistics().getSize());
+			String c = connector.submit(0, "select * from b").get().getReply();
+			Thread.sleep(TTL_MILLIS + 50);
+			assertNotEquals(c, connector.submit(0, "select * from b").get().getReply());
+			assertTrue(connector.getCacheStatistics().getHitRatio() > 0);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ReplyMessage;
+
+public class CancelTest {
+	private static final int ABORT = 2;
+	private static final long STALL_MILLIS = 1000;
+	private static MockServer server;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = new MockServer(request -> {
+			if (request.command == ABORT)
+				return null;
+			if (request.body.startsWith("select stall"))
+				Thread.sleep(STALL_MILLIS);
+			return request.body;
+		});
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		server.close();
+	}
+
+	private static int count(String body, int command) {
+		int r = 0;
+		long id = -1;
+		for (MockServer.Request request : server.getRequests())
+			if (request.body.equals(body))
+				id = request.messageId;
+		for (MockServer.Request request : server.getRequests())
+			if (request.messageId == id && request.command == command)
+				++r;
+		return r;
+	}
+
+	private static Connector connector() {
+		return Connector.builder().host("127.0.0.1").port(server.getPort()).minPoolSize(1).maxPoolSize(1).build();
+	}
+
+	@Test
+	public void sentStatementIsAbortedOnce() throws Exception {
+		try (Connector connector = connector()) {
+			CompletableFuture<ReplyMessage> stalled = connector.submit(0, "select stall 1");
+			Thread.sleep(100);
+			assertTrue(stalled.cancel(false));
+			// connection takes statement right away, late reply is skipped
+			assertEquals("show store a\n", connector.submit(0, "show store a").get().getReply());
+			assertEquals(1, count("select stall 1", ABORT));
+		}
+	}
+
+	@Test
+	public void queuedStatementIsNotSent() throws Exception {
+		try (Connector connector = connector()) {
+			CompletableFuture<ReplyMessage> stalled = connector.submit(0, "select stall 2");
+			CompletableFuture<ReplyMessage[]> batch = connector.submitBatch(0, Arrays.asList("show store b", "show store c"));
+			assertTrue(batch.cancel(false));
+			assertEquals("select stall 2\n", stalled.get().getReply());
+			assertEquals("show store d\n", connector.submit(0, "show store d").get().getReply());
+			assertEquals(0, count("show store b", 1));
+			assertEquals(0, count("show store c", 1));
+			assertEquals(0, connector.getStatistics().getQueuedSessions());
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ReplyMessage;
+import keysql.connector.ReplyStream;
+
+public class DeadlineTest {
+	private static final int ABORT = 2;
+	private static final long STALL_MILLIS = 2000;
+	private static final long TIMEOUT_MILLIS = 300;
+	private static MockServer server;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = new MockServer(request -> {
+			// server does not reply to abort
+			if (request.command == ABORT)
+				return null;
+			if (request.body.startsWith("select stall"))
+				Thread.sleep(STALL_MILLIS);
+			return request.body;
+		});
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		server.close();
+	}
+
+	private static boolean aborted(long messageId) {
+		for (MockServer.Request request : server.getRequests())
+			if (request.command == ABORT && request.messageId == messageId)
+				return true;
+		return false;
+	}
+
+	private static long sentId(String body) {
+		for (MockServer.Request request : server.getRequests())
+			if (request.body.equals(body))
+				return request.messageId;
+		return -1;
+	}
+
+	@Test
+	public void stalledStatementIsAborted() throws Exception {
+		try (Connector connector = Connector.builder().host("127.0.0.1").port(server.getPort()).minPoolSize(1)
+				.maxPoolSize(1).build()) {
+			long start = System.nanoTime();
+			ReplyMessage reply = connector.submit(0, "select stall 1", false, TIMEOUT_MILLIS).get();
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			assertEquals(ReplyMessage.EXIT_CODE_TIMEOUT, reply.getExitCode());
+			assertTrue("timed out after " + elapsed + " ms", elapsed < STALL_MILLIS / 2);
+			// connection is back in pool, late reply of stalled statement is skipped
+			assertEquals("show store s\n", connector.submit(0, "show store s").get().getReply());
+			assertTrue(aborted(sentId("select stall 1")));
+			assertEquals(1, connector.getStatistics().getPoolSize());
+		}
+	}
+
+	@Test
+	public void queuedStatementIsNotSent() throws Exception {
+		try (Connector connector = Connector.builder().host("127.0.0.1").port(server.getPort()).minPoolSize(1)
+				.maxPoolSize(1).requestTimeoutMillis(TIMEOUT_MILLIS).build()) {
+			CompletableFuture<ReplyMessage> stalled = connector.submit(0, "select stall 2", false, 0);
+			// waits for the only connection
+			ReplyMessage queued = connector.submit(0, "show store queued").get();
+			assertEquals(ReplyMessage.EXIT_CODE_TIMEOUT, queued.getExitCode());
+			assertFalse(stalled.isDone());
+			assertEquals("select stall 2\n", stalled.get().getReply());
+			assertEquals(-1, sentId("show store queued"));
+		}
+	}
+
+	@Test
+	public void batchAndStreamTimeOut() throws Exception {
+		try (Connector connector = Connector.builder().host("127.0.0.1").port(server.getPort()).minPoolSize(2)
+				.build()) {
+			ReplyMessage[] replies = connector
+					.submitBatch(0, Arrays.asList("show store b", "select stall 3"), false, TIMEOUT_MILLIS).get();
+			assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, replies[0].getExitCode());
+			assertEquals(ReplyMessage.EXIT_CODE_TIMEOUT, replies[1].getExitCode());
+			try (ReplyStream stream = connector.stream(0, "select stall 4", false, TIMEOUT_MILLIS)) {
+				assertNull(stream.next());
+				assertEquals(ReplyMessage.EXIT_CODE_TIMEOUT, stream.getResult().get().getExitCode());
+			}
+			assertEquals("show store c\n", connector.submit(0, "show store c").get().getReply());
+		}
+	}
+}
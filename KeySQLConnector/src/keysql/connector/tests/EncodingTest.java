@@ -0,0 +1,100 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ConnectorOptions;
+import keysql.connector.ReplyMessage;
+
+public class EncodingTest {
+	// 1, 2, 3 and 4 byte characters in UTF-8
+	private static final String TEXT = "key Z\u00fcrich \u03a9mega \u6771\u4eac \ud83d\ude00 end";
+	private static MockServer server;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = new MockServer(request -> TEXT + " " + request.body);
+		Connector.createInstance("127.0.0.1", server.getPort(),
+				new ConnectorOptions().setMinPoolSize(1).setMaxPoolSize(1));
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		Connector.getInstance().stopClient();
+		server.close();
+	}
+
+	@After
+	public void tearDown() {
+		server.setChunkSize(0);
+		server.setEncoding(null);
+		server.setReplyLength(null);
+		server.setReplyFields(null);
+	}
+
+	@Test
+	public void charactersSplitAcrossChunks() throws Exception {
+		Connector connector = Connector.getInstance();
+		// every chunk size below 8 splits some character of TEXT
+		for (int chunkSize = 1; chunkSize < 8; ++chunkSize) {
+			server.setChunkSize(chunkSize);
+			ReplyMessage reply = connector.submit(0, "show store s" + chunkSize).get();
+			assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, reply.getExitCode());
+			assertEquals(TEXT + " show store s" + chunkSize + "\n", reply.getReply());
+		}
+	}
+
+	@Test
+	public void replyHeaderEncoding() throws Exception {
+		Connector connector = Connector.getInstance();
+		server.setEncoding("ISO-8859-1");
+		// characters missing in Latin-1 are sent as '?'
+		ReplyMessage reply = connector.submit(0, "show store latin").get();
+		assertEquals("key Z\u00fcrich ?mega ?? ? end show store latin\n", reply.getReply());
+		server.setEncoding("UTF-16BE");
+		server.setChunkSize(3);
+		reply = connector.submit(0, "show store utf16").get();
+		assertEquals(TEXT + " show store utf16\n", reply.getReply());
+	}
+
+	@Test
+	public void malformedReplyHeader() throws Exception {
+		Connector connector = Connector.getInstance();
+		// length too large for one reply, and length that is not a number
+		for (String length : new String[] { "3000000000", "-5", "12x", "9223372036854775808", "99999999999999999999" }) {
+			server.setReplyLength(length);
+			ReplyMessage reply = connector.submit(0, "show store bad").get();
+			assertEquals(ReplyMessage.EXIT_CODE_COMUNICATION_ERROR, reply.getExitCode());
+		}
+		// client thread survived, new connection gets the reply
+		server.setReplyLength(null);
+		ReplyMessage reply = connector.submit(0, "show store good").get();
+		assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, reply.getExitCode());
+		assertEquals(TEXT + " show store good\n", reply.getReply());
+	}
+
+	@Test
+	public void replyHeaderFieldRanges() throws Exception {
+		Connector connector = Connector.getInstance();
+		// page does not fit int
+		server.setReplyFields("type 3 count 1 page 2147483648");
+		assertEquals(ReplyMessage.EXIT_CODE_COMUNICATION_ERROR, connector.submit(0, "show store page").get().getExitCode());
+		// times that are not plain decimals
+		String[] times = { "NaN", "Infinity", "-Infinity", "1e-05", "0x1p3", "1234567890.1234567", "-0.25" };
+		double[] expected = { Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 1e-05, 8, 1234567890.1234567,
+				-0.25 };
+		for (int i = 0; i < times.length; ++i) {
+			server.setReplyFields("type 3 count 1 time " + times[i]);
+			ReplyMessage reply = connector.submit(0, "show store time").get();
+			assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, reply.getExitCode());
+			assertEquals(times[i], expected[i], reply.getElapsedTime(), 0);
+		}
+		server.setReplyFields("type 3 count 1 time 1.2.3");
+		assertEquals(ReplyMessage.EXIT_CODE_COMUNICATION_ERROR, connector.submit(0, "show store time").get().getExitCode());
+	}
+}
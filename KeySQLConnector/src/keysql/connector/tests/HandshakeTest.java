@@ -0,0 +1,57 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ConnectorOptions;
+import keysql.connector.ReplyMessage;
+
+public class HandshakeTest {
+	private static final long HANDSHAKE_MILLIS = 500;
+	private static MockServer server;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = new MockServer();
+		Connector.createInstance("127.0.0.1", server.getPort(),
+				new ConnectorOptions().setMinPoolSize(1).setMaxPoolSize(4));
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		Connector.getInstance().stopClient();
+		server.close();
+	}
+
+	@Test
+	public void slowHandshakeDoesNotBlockReplies() throws Exception {
+		Connector connector = Connector.getInstance();
+		connector.submit(0, "show catalog warmup").get();
+		// connections opened from now on take long to establish
+		server.setHandshakeDelayMillis(HANDSHAKE_MILLIS);
+		long start = System.nanoTime();
+		List<CompletableFuture<ReplyMessage>> burst = new ArrayList<>();
+		for (int i = 0; i < 20; ++i)
+			burst.add(connector.submit(0, "show catalog burst" + i));
+		for (CompletableFuture<ReplyMessage> future : burst)
+			assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, future.get().getExitCode());
+		long elapsedMillis = (System.nanoTime() - start) / 1000000;
+		System.out.println("burst served in " + elapsedMillis + " ms, " + connector.getStatistics());
+		// served by established connection while new ones are in handshake
+		assertTrue(elapsedMillis < HANDSHAKE_MILLIS);
+		assertTrue(connector.getStatistics().getPendingConnections() > 0);
+
+		Thread.sleep(HANDSHAKE_MILLIS * 2);
+		System.out.println(connector.getStatistics());
+		assertEquals(4, connector.getStatistics().getPoolSize());
+	}
+}
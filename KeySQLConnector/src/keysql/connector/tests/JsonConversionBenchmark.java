@@ -0,0 +1,105 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import keysql.connector.IKeySQLJson;
+import keysql.connector.KeySQLJson;
+
+//compares sequential conversion of json instances with ordered and unordered
+//parallel conversion at pool sizes up to available cores, run from directory with json samples
+public class JsonConversionBenchmark {
+	private static final int WARMUP = 5;
+	private static final int ITERATIONS = 10;
+	// samples are repeated, so there are enough chunks for all workers
+	private static final int COPIES = 8;
+
+	private interface Conversion {
+		long run(String json) throws Exception;
+	}
+
+	private static String read(String file) throws Exception {
+		String json = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8).trim();
+		// root array is unwrapped, copies are separated by commas
+		if (json.startsWith("["))
+			json = json.substring(1, json.lastIndexOf(']'));
+		StringBuilder r = new StringBuilder();
+		for (int i = 0; i < COPIES; ++i)
+			r.append(i == 0 ? "" : ",\n").append(json);
+		return r.toString();
+	}
+
+	private static void measure(String name, String json, Conversion conversion) throws Exception {
+		long sink = 0;
+		for (int i = 0; i < WARMUP; ++i)
+			sink += conversion.run(json);
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; ++i)
+			sink += conversion.run(json);
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("%-36s %8.1f MB/s   (%d)%n", name, (double) json.length() * ITERATIONS * 1000 / elapsed,
+				sink & 1);
+	}
+
+	private static List<String> convert(IKeySQLJson converter, String json, ForkJoinPool pool) throws Exception {
+		List<String> r = new ArrayList<>();
+		if (pool == null)
+			converter.convertInstances(new StringReader(json), r::add);
+		else
+			converter.convertInstances(new StringReader(json), r::add, pool, true);
+		return r;
+	}
+
+	private static void run(String name, IKeySQLJson converter, String json, int maxPoolSize) throws Exception {
+		List<String> sequential = convert(converter, json, null);
+		System.out.println(name + ": " + json.length() + " chars, " + sequential.size() + " instances");
+		measure("sequential", json, s -> {
+			AtomicLong length = new AtomicLong();
+			converter.convertInstances(new StringReader(s), i -> length.addAndGet(i.length()));
+			return length.get();
+		});
+		for (int size = 1; size <= maxPoolSize; size *= 2) {
+			ForkJoinPool pool = new ForkJoinPool(size);
+			try {
+				assertEquals(sequential, convert(converter, json, pool));
+				measure("ordered, pool " + size, json, s -> {
+					AtomicLong length = new AtomicLong();
+					converter.convertInstances(new StringReader(s), i -> length.addAndGet(i.length()), pool, true);
+					return length.get();
+				});
+				measure("unordered, pool " + size, json, s -> {
+					AtomicLong length = new AtomicLong();
+					converter.convertInstances(new StringReader(s), i -> length.addAndGet(i.length()), pool, false);
+					return length.get();
+				});
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void sequentialAgainstParallel() throws Exception {
+		int maxPoolSize = Runtime.getRuntime().availableProcessors();
+		Map<String, String> aliases = new HashMap<>();
+		aliases.put("CAST", "ACTOR");
+		IKeySQLJson movies = new KeySQLJson(new String(Files.readAllBytes(Paths.get("movies_short_schema.json")),
+				StandardCharsets.UTF_8), "movie_short", aliases);
+		IKeySQLJson worldBank = new KeySQLJson(new String(Files.readAllBytes(Paths.get("JsonSchemaWorldBank.json")),
+				StandardCharsets.UTF_8), "world_bank");
+		run("movies_short.json", movies, read("movies_short.json"), maxPoolSize);
+		run("world_bank.json", worldBank, read("world_bank.json"), maxPoolSize);
+	}
+}
@@ -0,0 +1,184 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import keysql.connector.IKeySQLJson;
+import keysql.connector.KeySQLJson;
+
+public class JsonStreamTest {
+	private static final String SCHEMA = "{\"type\":\"object\",\"properties\":{"
+			+ "\"name\":{\"type\":\"string\"},\"n\":{\"type\":\"integer\"}}}";
+
+	private static List<String> convert(String json) throws Exception {
+		List<String> r = new ArrayList<>();
+		new KeySQLJson(SCHEMA, "item").convertInstances(new StringReader(json), r::add);
+		return r;
+	}
+
+	@Test
+	public void inputFormats() throws Exception {
+		List<String> expected = Arrays.asList("{item:{NAME:'a',N:1}}", "{item:{NAME:'b',N:2.5}}");
+		assertEquals(expected, convert("[{\"name\":\"a\",\"n\":1},{\"name\":\"b\",\"n\":2.50}]"));
+		assertEquals(expected, convert("{\"name\":\"a\",\"n\":1},\n{\"name\":\"b\",\"n\":2.50}"));
+		assertEquals(expected, convert("{\"name\":\"a\",\"n\":1}\n{\"name\":\"b\",\"n\":2.50}\n"));
+	}
+
+	@Test
+	public void fieldNamesIgnoreCase() throws Exception {
+		assertEquals(Arrays.asList("{item:{NAME:'a',N:1}}", "{item:{NAME:'b',N:2}}"),
+				convert("{\"NaMe\":\"a\",\"n\":1,\"names\":2}{\"NAME\":\"b\",\"N\":2,\"nam\":3}"));
+		// schema names that are not ASCII are upper cased like before
+		List<String> r = new ArrayList<>();
+		new KeySQLJson("{\"type\":\"object\",\"properties\":{\"\u00e9t\u00e9\":{\"type\":\"integer\"}}}", "item")
+				.convertInstances(new StringReader("{\"\u00c9t\u00e9\":1}{\"ete\":2}"), r::add);
+		assertEquals(Arrays.asList("{item:{\u00c9T\u00c9:1}}", "{item:NULL}"), r);
+	}
+
+	@Test
+	public void bracesInStrings() throws Exception {
+		assertEquals(Arrays.asList("{item:{NAME:'}{a',N:1}}", "{item:{NAME:'\"}',N:2}}"),
+				convert("{\"name\":\"}{a\",\"n\":1},{\"name\":\"\\\"}\",\"n\":2}"));
+	}
+
+	@Test
+	public void mismatchedAndBrokenInstancesAreSkipped() throws Exception {
+		// rest of mismatched instance is read, unknown fields are ignored
+		assertEquals(Arrays.asList("{item:{NAME:'ok',N:5}}"),
+				convert("[{\"n\":true,\"name\":{\"deep\":[1,{\"n\":2}]}},{\"name\":\"ok\",\"x\":[],\"n\":5}]"));
+		assertEquals(Arrays.asList("{item:{NAME:'x',N:1}}", "{item:{NAME:'z',N:3}}"),
+				convert("[{\"name\":\"x\",\"n\":1},{\"name\":\"y\",\"n\":[1,\"n\":2},{\"name\":\"z\",\"n\":3}]"));
+		// object closed inside array
+		assertEquals(Arrays.asList("{item:{NAME:'z',N:3}}"),
+				convert("[{\"name\":\"y\",\"n\":[1},{\"name\":\"z\",\"n\":3}]"));
+		assertEquals(Arrays.asList("{item:{NAME:'z',N:3}}"),
+				convert("[{\"name\":\"y\",\"n\":{\"a\":[1}},{\"name\":\"z\",\"n\":3}]"));
+	}
+
+	@Test
+	public void brokenInstanceEndsWhereItsBracesClose() throws Exception {
+		// braces in strings behind failure are not counted
+		assertEquals(Arrays.asList("{item:{NAME:'z',N:3}}"),
+				convert("{\"name\":\"y\",\"n\":[1:2],\"s\":\"}{\",\"o\":{\"a\":1}} {\"name\":\"z\",\"n\":3}"));
+		// failure inside string, scan starts at its quote
+		assertEquals(Arrays.asList("{item:{NAME:'b',N:2}}", "{item:{NAME:'c',N:3}}"),
+				convert("{\"name\":\"a\\q\",\"n\":1}\n{\"name\":\"b\",\"n\":2}\n{\"name\":\"c\",\"n\":3}"));
+		// string that is not closed hides braces up to next quote
+		assertEquals(Arrays.asList("{item:{NAME:'a',N:0}}"),
+				convert("[{\"name\":\"a\",\"n\":0},{\"name\":\"abc,\"n\":1},{\"name\":\"b\",\"n\":2}]"));
+	}
+
+	@Test
+	public void repeatedKeyLastWins() throws Exception {
+		assertEquals(Arrays.asList("{item:{NAME:'long name',N:2}}", "{item:{NAME:'b',N:3}}", "{item:{N:1,NAME:'d'}}"),
+				convert("{\"name\":\"a\",\"n\":1,\"name\":\"long name\",\"n\":2}"
+						// mismatched value is replaced, mismatch replacing value is kept
+						+ "{\"name\":{},\"n\":3,\"name\":\"b\"}{\"name\":\"c\",\"name\":{}}"
+						+ "{\"n\":1,\"name\":\"c\",\"name\":\"d\"}"));
+	}
+
+	@Test
+	public void statementIsWrittenToOut() throws Exception {
+		IKeySQLJson converter = new KeySQLJson(SCHEMA, "item");
+		String json = "[{\"name\":\"a\",\"n\":1},{\"name\":\"b\",\"n\":2}]";
+		StringBuilder out = new StringBuilder();
+		assertEquals(2, converter.insertInstancesStatement(new StringReader(json), "s", out));
+		assertEquals("INSERT INTO s INSTANCES\n{item:{NAME:'a',N:1}},\n{item:{NAME:'b',N:2}}", out.toString());
+		assertEquals(out.toString(), converter.insertInstancesStatement(json, "s"));
+		assertNull(converter.insertInstancesStatement("[{\"n\":\"x\",\"name\":1}]", "s"));
+	}
+
+	@Test
+	public void instancesAreWrittenToSink() throws Exception {
+		IKeySQLJson converter = new KeySQLJson(SCHEMA, "item");
+		// mismatched and broken instances are rolled back with their separators
+		String json = "[{\"name\":\"a\",\"n\":1},{\"name\":{},\"n\":2},{\"name\":\"b\",\"n\":[3}"
+				+ ",{\"name\":\"\u00e9\",\"n\":4}]";
+		String expected = "{item:{NAME:'a',N:1}};{item:{NAME:'\u00e9',N:4}}";
+		StringBuilder sb = new StringBuilder("<");
+		assertEquals(2, converter.writeInstances(new StringReader(json), sb, ";"));
+		assertEquals("<" + expected, sb.toString());
+		StringWriter writer = new StringWriter();
+		assertEquals(2, converter.writeInstances(new StringReader(json), writer, ";"));
+		assertEquals(expected, writer.toString());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		assertEquals(2, converter.writeInstances(new StringReader(json), bytes, ";"));
+		assertEquals(expected, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+		sb.setLength(1);
+		assertEquals(2, converter.insertInstancesStatement(new StringReader(json), "s", sb));
+		assertEquals("<INSERT INTO s INSTANCES\n" + expected.replace(";", ",\n"), sb.toString());
+		// lone surrogate does not cut off the stream
+		bytes.reset();
+		json = "[{\"name\":\"x\\ud800y\",\"n\":1},{\"name\":\"b\",\"n\":2}]";
+		assertEquals(2, converter.writeInstances(new StringReader(json), bytes, ";"));
+		assertEquals("{item:{NAME:'x?y',N:1}};{item:{NAME:'b',N:2}}", new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void parallelConversion() throws Exception {
+		// several chunks, broken instances and braces in strings across cut points
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < 20000; ++i)
+			json.append(i == 0 ? "" : ",").append("{\"name\":\"").append(i % 7 == 0 ? "}{\\\"" : "i")
+					.append(i).append("\",\"n\":").append(i % 501 == 0 ? "[" : "").append(i).append('}');
+		List<String> expected = convert(json.append(']').toString());
+		IKeySQLJson converter = new KeySQLJson(SCHEMA, "item");
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			List<String> ordered = new ArrayList<>();
+			assertEquals(expected.size(), converter.convertInstances(new StringReader(json.toString()), ordered::add,
+					pool, true));
+			assertEquals(expected, ordered);
+			List<String> unordered = Collections.synchronizedList(new ArrayList<>());
+			assertEquals(expected.size(), converter.convertInstances(new StringReader(json.toString()),
+					unordered::add, pool, false));
+			Collections.sort(expected);
+			Collections.sort(unordered);
+			assertEquals(expected, unordered);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void parallelConversionOfLongInstance() throws Exception {
+		// instance longer than largest chunk, rest of input in nested arrays
+		char[] name = new char[3 * 1024 * 1024];
+		Arrays.fill(name, 'x');
+		StringBuilder json = new StringBuilder("[{\"name\":\"").append(name).append("\",\"n\":0}");
+		for (int i = 1; i < 20000; ++i)
+			json.append(i % 1000 == 0 ? "],[" : ",").append("{\"name\":\"i").append(i).append("\",\"n\":").append(i).append('}');
+		json.insert(0, '[').append("]]");
+		List<String> expected = convert(json.toString());
+		assertEquals(20000, expected.size());
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try {
+			List<String> ordered = new ArrayList<>();
+			new KeySQLJson(SCHEMA, "item").convertInstances(new StringReader(json.toString()), ordered::add, pool, true);
+			assertEquals(expected, ordered);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void utf8Stream() throws Exception {
+		List<String> r = new ArrayList<>();
+		byte[] json = "{\"name\":\"\u00e9t\u00e9\"}".getBytes(StandardCharsets.UTF_8);
+		new KeySQLJson(SCHEMA, "item").convertInstances(new ByteArrayInputStream(json), r::add);
+		assertEquals(Arrays.asList("{item:{NAME:'\u00e9t\u00e9'}}"), r);
+	}
+}
@@ -0,0 +1,58 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ReplyMessage;
+
+//idle-to-first-byte latency: time from submit on idle client
+//until the first header byte is read by local stand-in server,
+//tail depends on cores and scheduler shared with the server threads
+public class LatencyBenchmark {
+	private static final int WARMUP = 200;
+	private static final int ITERATIONS = 500;
+	private static final int IDLE_MILLIS = 2;
+	private static MockServer server;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = new MockServer();
+		Connector.createInstance("127.0.0.1", server.getPort());
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		Connector.getInstance().stopClient();
+		server.close();
+	}
+
+	@Test
+	public void idleToFirstByte() throws Exception {
+		Connector connector = Connector.getInstance();
+		long[] latencies = new long[ITERATIONS];
+		for (int iter = 0; iter < WARMUP + ITERATIONS; ++iter) {
+			// let client thread go idle in select()
+			Thread.sleep(IDLE_MILLIS);
+			int before = server.getRequests().size();
+			long start = System.nanoTime();
+			CompletableFuture<ReplyMessage> future = connector.submit(0, "show catalog bench" + iter);
+			ReplyMessage reply = future.get();
+			assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, reply.getExitCode());
+			if (iter >= WARMUP) {
+				latencies[iter - WARMUP] = server.getRequests().get(before).firstByteNanos - start;
+			}
+		}
+		Arrays.sort(latencies);
+		long p50 = latencies[ITERATIONS / 2];
+		long p99 = latencies[ITERATIONS * 99 / 100];
+		System.out.println("idle-to-first-byte p50: " + p50 / 1000 + " us, p99: " + p99 / 1000 + " us, max: "
+				+ latencies[ITERATIONS - 1] / 1000 + " us");
+	}
+}
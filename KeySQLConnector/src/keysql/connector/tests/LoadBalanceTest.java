@@ -0,0 +1,100 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ConnectorOptions;
+import keysql.connector.ReplyMessage;
+
+public class LoadBalanceTest {
+	private static final long SLOW_MILLIS = 50;
+	private static MockServer primary;
+	private static MockServer first;
+	private static MockServer second;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		primary = new MockServer(request -> "primary " + request.body);
+		first = new MockServer(request -> "first " + request.body);
+		second = new MockServer(request -> {
+			if (request.body.startsWith("select slow"))
+				Thread.sleep(SLOW_MILLIS);
+			return "second " + request.body;
+		});
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		primary.close();
+		first.close();
+		second.close();
+	}
+
+	private static Connector connector(ConnectorOptions.Balancing balancing) {
+		return Connector.builder().host("127.0.0.1").port(primary.getPort())
+				.addReplica("127.0.0.1", first.getPort()).addReplica("127.0.0.1", second.getPort())
+				.minPoolSize(2).balancing(balancing).build();
+	}
+
+	private static int count(List<CompletableFuture<ReplyMessage>> replies, String server) throws Exception {
+		int r = 0;
+		for (CompletableFuture<ReplyMessage> reply : replies)
+			if (reply.get().getReply().startsWith(server + " "))
+				++r;
+		return r;
+	}
+
+	@Test
+	public void readsGoToReplicas() throws Exception {
+		try (Connector connector = connector(ConnectorOptions.Balancing.LEAST_OUTSTANDING)) {
+			List<CompletableFuture<ReplyMessage>> reads = new ArrayList<>();
+			for (int i = 0; i < 100; ++i)
+				reads.add(connector.submit(0, (i % 2 == 0 ? "select " : "show store ") + i));
+			List<CompletableFuture<ReplyMessage>> writes = new ArrayList<>();
+			for (int i = 0; i < 20; ++i)
+				writes.add(connector.submit(0, "insert into s " + i));
+			assertEquals(0, count(reads, "primary"));
+			assertEquals(20, count(writes, "primary"));
+			// both replicas take a share of reads
+			int onFirst = count(reads, "first");
+			assertTrue("first replica took " + onFirst, onFirst > 10 && onFirst < 90);
+			assertEquals(100, onFirst + count(reads, "second"));
+			// batch with a write goes to primary as a whole
+			ReplyMessage[] batch = connector.submitBatch(0, Arrays.asList("select a", "insert into s a")).get();
+			assertEquals("primary select a\n", batch[0].getReply());
+			assertEquals("primary insert into s a\n", batch[1].getReply());
+			assertTrue(connector.submitBatch(0, Arrays.asList("select b", "show store b")).get()[0]
+					.getReply().matches("(first|second) select b\n"));
+		}
+	}
+
+	@Test
+	public void latencyWeighted() throws Exception {
+		try (Connector connector = connector(ConnectorOptions.Balancing.EWMA)) {
+			// one at a time, so only latency tells replicas apart. first replies
+			// warm up, every 16th read is sent round robin and measures both
+			for (int i = 0; i < 64; ++i)
+				connector.submit(0, "select slow warmup " + i).get();
+			List<CompletableFuture<ReplyMessage>> reads = new ArrayList<>();
+			for (int i = 0; i < 48; ++i) {
+				CompletableFuture<ReplyMessage> reply = connector.submit(0, "select slow " + i);
+				reply.get();
+				reads.add(reply);
+			}
+			// 3 probes, one or two of them on slow replica
+			int onSecond = count(reads, "second");
+			assertTrue("slow replica took " + onSecond, onSecond <= 3);
+			assertEquals(48, onSecond + count(reads, "first"));
+		}
+	}
+}
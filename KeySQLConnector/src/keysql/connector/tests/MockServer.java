@@ -0,0 +1,259 @@
+package keysql.connector.tests;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+//local stand-in for KeySQL server, speaks the same text protocol:
+//handshake "keysql 0.1\n" -> "200\n", then "<header>\n<body>" in both directions
+public class MockServer implements Closeable {
+	private static final int FIRST_PORT = 15000;
+	private static final int LAST_PORT = 16000;
+	private static final String DEFAULT_REPLY_FIELDS = "type 3 count 1 time 0.001";
+
+	public interface Handler {
+		String reply(Request request) throws Exception;
+	}
+
+	public static final class Request {
+		public final long length;
+		public final int userId;
+		public final long messageId;
+		public final int command;
+		public final String body;
+		public final long firstByteNanos;
+
+		Request(String header, String body, long firstByteNanos) {
+			String[] parts = header.split(" ");
+			this.length = Long.parseLong(parts[0]);
+			this.userId = Integer.parseInt(parts[1]);
+			this.messageId = Long.parseLong(parts[2]);
+			this.command = Integer.parseInt(parts[3]);
+			this.body = body;
+			this.firstByteNanos = firstByteNanos;
+		}
+	}
+
+	private final ServerSocket server;
+	private final Handler handler;
+	private final Thread acceptor;
+	private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+	private final List<Request> requests = new CopyOnWriteArrayList<>();
+	private final AtomicLong connections = new AtomicLong(0);
+	private final AtomicLong repliesSent = new AtomicLong(0);
+	private volatile boolean running = true;
+	private volatile int replyBatch = 1;
+	private volatile long handshakeDelayMillis = 0;
+	private volatile int chunkSize = 0;
+	private volatile String encoding = null;
+	private volatile String replyLength = null;
+	private volatile String replyFields = DEFAULT_REPLY_FIELDS;
+
+	public MockServer(Handler handler) throws IOException {
+		this(handler, bind());
+	}
+
+	//server on port of one closed before, as if it was restarted
+	public MockServer(Handler handler, short port) throws IOException {
+		this(handler, new ServerSocket(Short.toUnsignedInt(port), 256, InetAddress.getLoopbackAddress()));
+	}
+
+	private MockServer(Handler handler, ServerSocket server) {
+		this.handler = handler;
+		this.server = server;
+		this.acceptor = new Thread(this::accept, "mock-server-" + getPort());
+		this.acceptor.setDaemon(true);
+		this.acceptor.start();
+	}
+
+	//echo server
+	public MockServer() throws IOException {
+		this(request -> request.body);
+	}
+
+	public short getPort() {
+		return (short) server.getLocalPort();
+	}
+
+	public List<Request> getRequests() {
+		return requests;
+	}
+
+	public long getConnections() {
+		return connections.get();
+	}
+
+	//replies written completely to client sockets
+	public long getRepliesSent() {
+		return repliesSent.get();
+	}
+
+	//collect that many requests on a connection, then reply to them in reverse order
+	public void setReplyBatch(int replyBatch) {
+		this.replyBatch = replyBatch;
+	}
+
+	//delay before handshake reply of new connections
+	public void setHandshakeDelayMillis(long handshakeDelayMillis) {
+		this.handshakeDelayMillis = handshakeDelayMillis;
+	}
+
+	//write reply body in pieces of that many bytes, pausing between them
+	//so the client reads each piece separately, 0 writes body at once
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	//encode replies in this charset and announce it in reply header,
+	//null sends UTF-8 without encoding field
+	public void setEncoding(String encoding) {
+		this.encoding = encoding;
+	}
+
+	//send this instead of body length in reply headers, null sends the length
+	public void setReplyLength(String replyLength) {
+		this.replyLength = replyLength;
+	}
+
+	//send these name value fields in reply headers, null sends the default ones
+	public void setReplyFields(String replyFields) {
+		this.replyFields = replyFields == null ? DEFAULT_REPLY_FIELDS : replyFields;
+	}
+
+	//drop all client connections, server keeps accepting new ones
+	public void dropConnections() {
+		for (Socket socket : sockets) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+		sockets.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		running = false;
+		server.close();
+		dropConnections();
+	}
+
+	private static ServerSocket bind() throws IOException {
+		// Connector takes port as short
+		for (int port = FIRST_PORT; port < LAST_PORT; ++port) {
+			try {
+				return new ServerSocket(port, 256, InetAddress.getLoopbackAddress());
+			} catch (BindException e) {
+			}
+		}
+		throw new BindException("No free port for mock server");
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				final Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				sockets.add(socket);
+				connections.incrementAndGet();
+				Thread worker = new Thread(() -> serve(socket), "mock-connection-" + socket.getPort());
+				worker.setDaemon(true);
+				worker.start();
+			} catch (IOException e) {
+				// server closed
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			readLine(in);
+			if (handshakeDelayMillis > 0)
+				Thread.sleep(handshakeDelayMillis);
+			out.write("200\n".getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			List<Request> batch = new ArrayList<>();
+			while (running) {
+				int first = in.read();
+				if (first < 0)
+					break;
+				long firstByteNanos = System.nanoTime();
+				String header = (char) first + readLine(in);
+				long length = Long.parseLong(header.substring(0, header.indexOf(' ')));
+				byte[] body = new byte[(int) length];
+				int read = 0;
+				while (read < body.length) {
+					int n = in.read(body, read, body.length - read);
+					if (n < 0)
+						return;
+					read += n;
+				}
+				Request request = new Request(header, new String(body, StandardCharsets.UTF_8), firstByteNanos);
+				requests.add(request);
+				batch.add(request);
+				if (batch.size() < replyBatch)
+					continue;
+				for (int i = batch.size() - 1; i >= 0; --i)
+					reply(out, batch.get(i));
+				batch.clear();
+			}
+		} catch (Exception e) {
+			// connection dropped
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private void reply(OutputStream out, Request request) throws Exception {
+		String reply = handler.reply(request);
+		if (reply == null)
+			return;
+		String encoding = this.encoding;
+		byte[] replyBytes = reply.getBytes(encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding));
+		String length = replyLength;
+		String replyHeader = (length == null ? String.valueOf(replyBytes.length) : length) + " " + request.userId + " " + request.messageId
+				+ " 1 200 " + replyFields + (encoding == null ? "" : " encoding " + encoding) + "\n";
+		out.write(replyHeader.getBytes(StandardCharsets.US_ASCII));
+		int chunkSize = this.chunkSize;
+		if (chunkSize <= 0) {
+			out.write(replyBytes);
+			out.flush();
+		} else {
+			out.flush();
+			for (int offset = 0; offset < replyBytes.length; offset += chunkSize) {
+				Thread.sleep(1);
+				out.write(replyBytes, offset, Math.min(chunkSize, replyBytes.length - offset));
+				out.flush();
+			}
+		}
+		repliesSent.incrementAndGet();
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int c;
+		while ((c = in.read()) >= 0 && c != '\n')
+			line.write(c);
+		if (c < 0)
+			throw new IOException("Connection closed");
+		return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+	}
+}
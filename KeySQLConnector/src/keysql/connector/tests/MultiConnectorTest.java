@@ -0,0 +1,62 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ConnectorOptions;
+
+public class MultiConnectorTest {
+	private static MockServer first;
+	private static MockServer second;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		first = new MockServer(request -> "first " + request.messageId + " " + request.body);
+		second = new MockServer(request -> "second " + request.messageId + " " + request.body);
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		first.close();
+		second.close();
+	}
+
+	@Test
+	public void independentInstances() throws Exception {
+		try (Connector a = Connector.builder().host("127.0.0.1").port(first.getPort()).minPoolSize(1).maxPoolSize(2).build();
+				Connector b = Connector.builder().host("127.0.0.1").port(second.getPort()).minPoolSize(1).build()) {
+			// message ids are counted per instance
+			assertEquals("first 1 show store s\n", a.submit(0, "show store s").get().getReply());
+			assertEquals("second 1 show store s\n", b.submit(0, "show store s").get().getReply());
+			assertEquals("first 2 show store t\n", a.submit(0, "show store t").get().getReply());
+			assertEquals(2, a.getStatistics().getPoolSize() + b.getStatistics().getPoolSize());
+			// stopping one instance leaves the other running
+			a.stopClient();
+			assertEquals(0, a.getStatistics().getPoolSize());
+			assertEquals("second 2 show store t\n", b.submit(0, "show store t").get().getReply());
+			assertEquals(2, first.getRequests().size());
+			assertEquals(2, second.getRequests().size());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void portIsRequired() {
+		Connector.builder().host("127.0.0.1").build();
+	}
+
+	@Test
+	public void optionsAreCopied() {
+		ConnectorOptions options = new ConnectorOptions().setMinPoolSize(1);
+		Connector.Builder builder = Connector.builder().host("127.0.0.1").port(first.getPort()).options(options)
+				.maxPoolSize(3);
+		try (Connector connector = builder.build()) {
+			assertEquals(ConnectorOptions.DEFAULT_MAX_POOL_SIZE, options.getMaxPoolSize());
+			builder.maxPoolSize(5);
+			assertEquals(3, connector.getOptions().getMaxPoolSize());
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ConnectorOptions.OverloadPolicy;
+import keysql.connector.ConnectorStatistics;
+import keysql.connector.ReplyMessage;
+
+public class OverloadTest {
+	private static final long REPLY_MILLIS = 50;
+	private static final int QUEUE = 4;
+	private static MockServer server;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = new MockServer(request -> {
+			Thread.sleep(REPLY_MILLIS);
+			return request.body;
+		});
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		server.close();
+	}
+
+	private static Connector connector(OverloadPolicy policy) {
+		return Connector.builder().host("127.0.0.1").port(server.getPort()).minPoolSize(1).maxPoolSize(1)
+				.maxQueuedSessions(QUEUE, policy).build();
+	}
+
+	// one statement on the only connection, QUEUE waiting for it
+	private static List<CompletableFuture<ReplyMessage>> fill(Connector connector, String name) throws Exception {
+		List<CompletableFuture<ReplyMessage>> r = new ArrayList<>();
+		r.add(connector.submit(0, "select " + name + " 0"));
+		while (!sent("select " + name + " 0"))
+			Thread.sleep(1);
+		for (int i = 1; i <= QUEUE; ++i)
+			r.add(connector.submit(0, "select " + name + " " + i));
+		return r;
+	}
+
+	private static boolean sent(String body) {
+		for (MockServer.Request request : server.getRequests())
+			if (request.body.equals(body))
+				return true;
+		return false;
+	}
+
+	@Test
+	public void failFast() throws Exception {
+		try (Connector connector = connector(OverloadPolicy.FAIL)) {
+			List<CompletableFuture<ReplyMessage>> replies = fill(connector, "f");
+			ConnectorStatistics statistics = connector.getStatistics();
+			assertEquals(QUEUE, statistics.getQueuedSessions());
+			CompletableFuture<ReplyMessage> over = connector.submit(0, "select f over");
+			assertTrue(over.isDone());
+			assertEquals(ReplyMessage.EXIT_CODE_OVERLOADED, over.get().getExitCode());
+			for (CompletableFuture<ReplyMessage> reply : replies)
+				assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, reply.get().getExitCode());
+			statistics = connector.getStatistics();
+			assertEquals(0, statistics.getQueuedSessions());
+			assertEquals(1, statistics.getRejectedSessions());
+			// statements waited for one to four replies
+			assertTrue(statistics.getQueueWaitMillis() > 0);
+			assertFalse(sent("select f over"));
+		}
+	}
+
+	@Test
+	public void shedOldest() throws Exception {
+		try (Connector connector = connector(OverloadPolicy.SHED)) {
+			List<CompletableFuture<ReplyMessage>> replies = fill(connector, "s");
+			CompletableFuture<ReplyMessage> newest = connector.submit(0, "select s new");
+			assertEquals(ReplyMessage.EXIT_CODE_OVERLOADED, replies.get(1).get().getExitCode());
+			assertEquals("select s new\n", newest.get().getReply());
+			for (int i = 2; i < replies.size(); ++i)
+				assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, replies.get(i).get().getExitCode());
+			assertFalse(sent("select s 1"));
+			assertEquals(1, connector.getStatistics().getRejectedSessions());
+		}
+	}
+
+	@Test
+	public void blockUntilRoom() throws Exception {
+		try (Connector connector = connector(OverloadPolicy.BLOCK)) {
+			List<CompletableFuture<ReplyMessage>> replies = fill(connector, "b");
+			assertTrue(connector.getStatistics().getOldestQueuedMillis() >= 0);
+			long start = System.nanoTime();
+			CompletableFuture<ReplyMessage> waited = connector.submit(0, "select b waited");
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			// returned when first statement replied
+			assertTrue("submit took " + elapsed + " ms", elapsed >= REPLY_MILLIS / 2);
+			assertTrue(connector.getStatistics().getQueuedSessions() <= QUEUE);
+			// script continues on client thread, which never waits for room
+			CompletableFuture<ReplyMessage> script = connector.submit(0, "select b 5; select b 6; select b 7");
+			for (CompletableFuture<ReplyMessage> reply : replies)
+				assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, reply.get().getExitCode());
+			assertEquals("select b waited\n", waited.get().getReply());
+			assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, script.get().getExitCode());
+			assertEquals(0, connector.getStatistics().getRejectedSessions());
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ConnectorOptions;
+import keysql.connector.ReplyMessage;
+
+public class PipelineTest {
+	private static final int DEPTH = 8;
+	private static MockServer server;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = new MockServer(request -> "reply to " + request.body);
+		// server waits for DEPTH requests on connection and answers them in reverse order
+		server.setReplyBatch(DEPTH);
+		Connector.createInstance("127.0.0.1", server.getPort(),
+				new ConnectorOptions().setMinPoolSize(1).setMaxPoolSize(1).setPipelineDepth(DEPTH));
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		Connector.getInstance().stopClient();
+		server.close();
+	}
+
+	@Test
+	public void outOfOrderReplies() throws Exception {
+		Connector connector = Connector.getInstance();
+		for (int round = 0; round < 10; ++round) {
+			List<CompletableFuture<ReplyMessage>> futures = new ArrayList<>();
+			for (int i = 0; i < DEPTH; ++i)
+				futures.add(connector.submit(0, "show store s" + round + "_" + i));
+			for (int i = 0; i < DEPTH; ++i) {
+				ReplyMessage reply = futures.get(i).get();
+				assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, reply.getExitCode());
+				assertEquals("reply to show store s" + round + "_" + i + "\n", reply.getReply());
+			}
+		}
+		// all of them on one connection, so they were pipelined
+		assertEquals(1, server.getConnections());
+		assertEquals(10 * DEPTH, server.getRequests().size());
+	}
+}
@@ -0,0 +1,80 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ConnectorOptions;
+import keysql.connector.ConnectorStatistics;
+import keysql.connector.PoolListener;
+import keysql.connector.ReplyMessage;
+
+public class PoolTest {
+	private static final int MIN_POOL = 2;
+	private static final int MAX_POOL = 16;
+	private static final int IDLE_MILLIS = 300;
+	private static final AtomicInteger grown = new AtomicInteger(0);
+	private static final AtomicInteger shrunk = new AtomicInteger(0);
+	private static MockServer server;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		// slow server, so burst queues up
+		server = new MockServer(request -> {
+			Thread.sleep(20);
+			return request.body;
+		});
+		ConnectorOptions options = new ConnectorOptions()
+				.setMinPoolSize(MIN_POOL)
+				.setMaxPoolSize(MAX_POOL)
+				.setIdleTimeoutMillis(IDLE_MILLIS)
+				.setPoolListener((size, change, reason) -> {
+					System.out.println("pool " + size + (change > 0 ? " +" : " ") + change + " " + reason);
+					if (reason == PoolListener.Reason.IDLE_TIMEOUT)
+						shrunk.addAndGet(-change);
+					else if (change > 0)
+						grown.addAndGet(change);
+				});
+		Connector.createInstance("127.0.0.1", server.getPort(), options);
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		Connector.getInstance().stopClient();
+		server.close();
+	}
+
+	@Test
+	public void growAndShrink() throws Exception {
+		Connector connector = Connector.getInstance();
+		connector.submit(0, "show catalog warmup").get();
+		assertEquals(MIN_POOL, connector.getStatistics().getPoolSize());
+
+		List<CompletableFuture<ReplyMessage>> burst = new ArrayList<>();
+		for (int i = 0; i < 200; ++i)
+			burst.add(connector.submit(0, "show catalog burst" + i));
+		Thread.sleep(100);
+		ConnectorStatistics peak = connector.getStatistics();
+		System.out.println("peak: " + peak);
+		for (CompletableFuture<ReplyMessage> future : burst)
+			assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, future.get().getExitCode());
+		assertTrue(peak.getPoolSize() + peak.getPendingConnections() > MIN_POOL);
+		assertEquals(MAX_POOL - MIN_POOL, grown.get());
+		assertEquals(MAX_POOL, server.getConnections());
+
+		Thread.sleep(IDLE_MILLIS * 3);
+		ConnectorStatistics idle = connector.getStatistics();
+		System.out.println("idle: " + idle);
+		assertEquals(MIN_POOL, idle.getPoolSize());
+		assertEquals(MAX_POOL - MIN_POOL, shrunk.get());
+	}
+}
@@ -0,0 +1,132 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ConnectorOptions.OverloadPolicy;
+import keysql.connector.Priority;
+import keysql.connector.ReplyMessage;
+
+public class PriorityTest {
+	private static final long BULK_MILLIS = 50;
+	private static final int BULK = 30;
+	private static MockServer server;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = new MockServer(request -> {
+			if (request.body.startsWith("insert"))
+				Thread.sleep(BULK_MILLIS);
+			else if (request.body.equals("select stall"))
+				Thread.sleep(10 * BULK_MILLIS);
+			return request.body;
+		});
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		server.close();
+	}
+
+	private static List<String> bulk(String name) {
+		List<String> r = new ArrayList<>();
+		for (int i = 0; i < BULK; ++i)
+			r.add("insert into " + name + " {\"id\":" + i + "}");
+		return r;
+	}
+
+	// bodies of requests starting with prefix in arrival order
+	private static List<String> arrived(String prefix) {
+		List<String> r = new ArrayList<>();
+		for (MockServer.Request request : server.getRequests())
+			if (request.body.startsWith(prefix))
+				r.add(request.body);
+		return r;
+	}
+
+	@Test
+	public void interactiveSkipsBulkLoad() throws Exception {
+		try (Connector connector = Connector.builder().host("127.0.0.1").port(server.getPort()).minPoolSize(2)
+				.maxPoolSize(2).build()) {
+			CompletableFuture<ReplyMessage[]> load = connector.submitBatch(0, bulk("a"), false, 0, Priority.BULK);
+			long start = System.nanoTime();
+			ReplyMessage reply = connector.submit(0, "select * from a", false, 0, Priority.INTERACTIVE).get();
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			assertEquals("select * from a\n", reply.getReply());
+			// reserved connection was idle, load takes BULK * BULK_MILLIS
+			assertTrue("select took " + elapsed + " ms", elapsed < BULK * BULK_MILLIS / 3);
+			assertFalse(load.isDone());
+			for (ReplyMessage insert : load.get())
+				assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, insert.getExitCode());
+		}
+	}
+
+	@Test
+	public void normalAndBulkShareByWeight() throws Exception {
+		try (Connector connector = Connector.builder().host("127.0.0.1").port(server.getPort()).minPoolSize(1)
+				.maxPoolSize(1).build()) {
+			CompletableFuture<ReplyMessage[]> load = connector.submitBatch(0, bulk("b"), false, 0, Priority.BULK);
+			while (arrived("insert into b").isEmpty())
+				Thread.sleep(1);
+			List<CompletableFuture<ReplyMessage>> normal = new ArrayList<>();
+			for (int i = 0; i < 8; ++i)
+				normal.add(connector.submit(0, "insert into n {\"id\":" + i + "}"));
+			CompletableFuture<ReplyMessage> interactive = connector.submit(0, "insert into i {}", false, 0,
+					Priority.INTERACTIVE);
+			load.get();
+			for (CompletableFuture<ReplyMessage> reply : normal)
+				reply.get();
+			interactive.get();
+			StringBuilder order = new StringBuilder();
+			for (MockServer.Request request : server.getRequests()) {
+				if (request.body.startsWith("insert into b"))
+					order.append('B');
+				else if (request.body.startsWith("insert into n"))
+					order.append('N');
+				else if (request.body.startsWith("insert into i"))
+					order.append('I');
+			}
+			// first bulk statement took the idle pool, then interactive,
+			// then four normal statements for each bulk one
+			assertTrue(order.toString(), order.toString().startsWith("BINNNNBNNNNBB"));
+		}
+	}
+
+	@Test
+	public void shedLowestLane() throws Exception {
+		try (Connector connector = Connector.builder().host("127.0.0.1").port(server.getPort()).minPoolSize(1)
+				.maxPoolSize(1).maxQueuedSessions(4, OverloadPolicy.SHED).build()) {
+			CompletableFuture<ReplyMessage> stalled = connector.submit(0, "select stall");
+			while (arrived("select stall").isEmpty())
+				Thread.sleep(1);
+			CompletableFuture<ReplyMessage[]> load = connector.submitBatch(0, bulk("c").subList(0, 2), false, 0,
+					Priority.BULK);
+			List<CompletableFuture<ReplyMessage>> normal = new ArrayList<>();
+			for (int i = 0; i < 4; ++i)
+				normal.add(connector.submit(0, "select " + i));
+			// bulk statements made room for normal ones
+			for (ReplyMessage insert : load.get())
+				assertEquals(ReplyMessage.EXIT_CODE_OVERLOADED, insert.getExitCode());
+			// queue holds higher priority statements only, so bulk one is rejected
+			CompletableFuture<ReplyMessage> late = connector.submit(0, "insert into c {}", false, 0, Priority.BULK);
+			assertTrue(late.isDone());
+			assertEquals(ReplyMessage.EXIT_CODE_OVERLOADED, late.get().getExitCode());
+			assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, stalled.get().getExitCode());
+			for (CompletableFuture<ReplyMessage> reply : normal)
+				assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, reply.get().getExitCode());
+			assertEquals(3, connector.getStatistics().getRejectedSessions());
+			assertTrue(arrived("insert into c").isEmpty());
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ConnectorOptions;
+import keysql.connector.ReplyMessage;
+
+public class RequestWriteTest {
+	private static MockServer server;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		// server checks that header length is body length in bytes
+		server = new MockServer(request -> request.length + " "
+				+ request.body.getBytes(StandardCharsets.UTF_8).length + " " + request.body.hashCode());
+		Connector.createInstance("127.0.0.1", server.getPort(),
+				new ConnectorOptions().setMinPoolSize(1).setMaxPoolSize(2).setPipelineDepth(4));
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		Connector.getInstance().stopClient();
+		server.close();
+	}
+
+	private static String expected(String request) {
+		int length = request.getBytes(StandardCharsets.UTF_8).length;
+		return length + " " + length + " " + request.hashCode() + "\n";
+	}
+
+	@Test
+	public void multibyteRequest() throws Exception {
+		String request = "insert into s {\"city\":\"Z\u00fcrich \u6771\u4eac \ud83d\ude00\"}";
+		ReplyMessage reply = Connector.getInstance().submit(0, request).get();
+		assertEquals(expected(request), reply.getReply());
+	}
+
+	@Test
+	public void largeRequests() throws Exception {
+		// several MB each, far more than socket buffers, so writes are partial
+		StringBuilder values = new StringBuilder("insert into s values ");
+		while (values.length() < 4 * 1024 * 1024)
+			values.append("{\"name\":\"Z\u00fcrich\",\"id\":").append(values.length()).append("},");
+		List<String> requests = new ArrayList<>();
+		List<CompletableFuture<ReplyMessage>> futures = new ArrayList<>();
+		for (int i = 0; i < 4; ++i) {
+			requests.add(values.toString() + i);
+			futures.add(Connector.getInstance().submit(0, requests.get(i)));
+		}
+		for (int i = 0; i < futures.size(); ++i)
+			assertEquals(expected(requests.get(i)), futures.get(i).get().getReply());
+	}
+}
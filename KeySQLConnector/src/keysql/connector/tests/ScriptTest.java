@@ -0,0 +1,76 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ConnectorOptions;
+import keysql.connector.ReplyMessage;
+
+public class ScriptTest {
+	private static final long ROUND_TRIP_MILLIS = 200;
+	private static MockServer server;
+	// statement -> time its request arrived and time server replied
+	private static final Map<String, Long> received = new ConcurrentHashMap<>();
+	private static final Map<String, Long> replied = new ConcurrentHashMap<>();
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = new MockServer(request -> {
+			received.put(request.body, request.firstByteNanos);
+			Thread.sleep(ROUND_TRIP_MILLIS);
+			replied.put(request.body, System.nanoTime());
+			return request.body;
+		});
+		Connector.createInstance("127.0.0.1", server.getPort(),
+				new ConnectorOptions().setMinPoolSize(4).setMaxPoolSize(4).setParallelReads(true));
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		Connector.getInstance().stopClient();
+		server.close();
+	}
+
+	@Test
+	public void submitDoesNotWait() throws Exception {
+		long start = System.nanoTime();
+		CompletableFuture<ReplyMessage> reply = Connector.getInstance()
+				.submit(0, "insert into s a1; insert into s a2; insert into s a3");
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < ROUND_TRIP_MILLIS);
+		assertEquals("insert into s a1\n\n\ninsert into s a2\n\n\ninsert into s a3\n", reply.get().getReply());
+	}
+
+	@Test
+	public void readsRunTogether() throws Exception {
+		long start = System.nanoTime();
+		ReplyMessage reply = Connector.getInstance().submit(0, "select b1; show store b2; select b3; select b4").get();
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		// close to one round trip, not four
+		assertTrue("script took " + elapsed + " ms", elapsed < 2 * ROUND_TRIP_MILLIS);
+		assertEquals("select b1\n\n\nshow store b2\n\n\nselect b3\n\n\nselect b4\n", reply.getReply());
+	}
+
+	@Test
+	public void writeWaitsForStatementsBefore() throws Exception {
+		ReplyMessage[] replies = Connector.getInstance()
+				.submitScript(0, new String[] { "select c1", "select c2", "insert into s c3", "select c4" });
+		assertEquals(4, replies.length);
+		for (int i = 0; i < replies.length; ++i)
+			assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, replies[i].getExitCode());
+		assertEquals("insert into s c3\n", replies[2].getReply());
+		long insert = received.get("insert into s c3");
+		assertTrue(insert > replied.get("select c1"));
+		assertTrue(insert > replied.get("select c2"));
+		assertTrue(received.get("select c4") > replied.get("insert into s c3"));
+	}
+}
@@ -0,0 +1,101 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ConnectorOptions;
+import keysql.connector.ReplyMessage;
+import keysql.connector.ReplyStream;
+
+public class StreamTest {
+	// 2 and 3 byte characters split between socket reads
+	private static final String LINE = "{\"city\":\"Z\u00fcrich\",\"name\":\"\u6771\u4eac\"}\n";
+	// far more than socket buffers of both sides
+	private static final int LINES = 32 * 1024 * 1024 / LINE.length();
+	private static final int ABORT = 2;
+	private static MockServer server;
+	private static String large;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		StringBuilder sb = new StringBuilder(LINES * LINE.length());
+		for (int i = 0; i < LINES; ++i)
+			sb.append(LINE);
+		large = sb.toString();
+		server = new MockServer(request -> {
+			if (request.command == ABORT)
+				return null;
+			return request.body.equals("select large") ? large : request.body;
+		});
+		// one connection, so stream must leave it usable
+		Connector.createInstance("127.0.0.1", server.getPort(),
+				new ConnectorOptions().setMinPoolSize(1).setMaxPoolSize(1).setStreamChunks(4));
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		Connector.getInstance().stopClient();
+		server.close();
+		large = null;
+	}
+
+	@Test
+	public void readerControlsSocket() throws Exception {
+		long sent = server.getRepliesSent();
+		try (ReplyStream stream = Connector.getInstance().stream(0, "select large")) {
+			String chunk = stream.next();
+			assertNotNull(chunk);
+			// reader waits, client stops reading, so server cannot finish the reply
+			Thread.sleep(500);
+			assertEquals(sent, server.getRepliesSent());
+			long lines = 0;
+			int position = 0;
+			for (; chunk != null; chunk = stream.next()) {
+				for (int i = 0; i < chunk.length(); ++i) {
+					assertEquals(LINE.charAt(position), chunk.charAt(i));
+					if (++position == LINE.length()) {
+						position = 0;
+						++lines;
+					}
+				}
+			}
+			assertEquals(LINES, lines);
+			assertEquals(0, position);
+			ReplyMessage result = stream.getResult().get();
+			assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, result.getExitCode());
+			assertNull(stream.next());
+		}
+		assertEquals(sent + 1, server.getRepliesSent());
+	}
+
+	@Test
+	public void wholeReplyInChunks() throws Exception {
+		StringBuilder reply = new StringBuilder();
+		try (ReplyStream stream = Connector.getInstance().stream(0, "select large")) {
+			for (String chunk; (chunk = stream.next()) != null;)
+				reply.append(chunk);
+		}
+		assertEquals(large.length(), reply.length());
+		assertTrue(large.contentEquals(reply));
+	}
+
+	@Test
+	public void closeDiscardsRest() throws Exception {
+		Connector connector = Connector.getInstance();
+		ReplyStream stream = connector.stream(0, "select large");
+		assertNotNull(stream.next());
+		stream.close();
+		assertNull(stream.next());
+		assertTrue(stream.getResult().isCancelled());
+		// connection reads again and discards rest of reply
+		ReplyMessage reply = connector.submit(0, "show store s").get();
+		assertEquals("show store s\n", reply.getReply());
+	}
+}
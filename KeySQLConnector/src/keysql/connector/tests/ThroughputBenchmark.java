@@ -0,0 +1,81 @@
+package keysql.connector.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import keysql.connector.Connector;
+import keysql.connector.ConnectorOptions;
+import keysql.connector.ReplyMessage;
+
+//small statements from many caller threads with 1, 2, 4 and 8 event loops,
+//scaling depends on available cores of both client and local stand-in server
+public class ThroughputBenchmark {
+	private static final int CALLERS = 32;
+	private static final int STATEMENTS = 2000;
+	private static final int[] LOOPS = { 1, 2, 4, 8 };
+	private static MockServer server;
+	private static ConnectorOptions options;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = new MockServer();
+		options = new ConnectorOptions().setMinPoolSize(32).setMaxPoolSize(32);
+		Connector.createInstance("127.0.0.1", server.getPort(), options);
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		Connector.getInstance().stopClient();
+		server.close();
+	}
+
+	@Test
+	public void eventLoops() throws Exception {
+		System.out.println(Runtime.getRuntime().availableProcessors() + " cores");
+		// warm up
+		run(1);
+		for (int loops : LOOPS) {
+			double rate = run(loops);
+			System.out.println(loops + " event loop(s): " + (long) rate + " statements/sec");
+		}
+	}
+
+	private static double run(int loops) throws Exception {
+		Connector connector = Connector.getInstance();
+		connector.stopClient();
+		options.setEventLoops(loops);
+		connector.startClient("127.0.0.1", server.getPort());
+		Thread[] callers = new Thread[CALLERS];
+		long start = System.nanoTime();
+		for (int i = 0; i < callers.length; ++i) {
+			callers[i] = new Thread(() -> {
+				try {
+					List<CompletableFuture<ReplyMessage>> window = new ArrayList<>();
+					for (int n = 0; n < STATEMENTS / CALLERS; ++n) {
+						window.add(connector.submit(0, "show store s" + n));
+						if (window.size() == 4) {
+							for (CompletableFuture<ReplyMessage> future : window)
+								assertEquals(ReplyMessage.EXIT_CODE_SUCCESS, future.get().getExitCode());
+							window.clear();
+						}
+					}
+					for (CompletableFuture<ReplyMessage> future : window)
+						future.get();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			});
+			callers[i].start();
+		}
+		for (Thread caller : callers)
+			caller.join();
+		return STATEMENTS * 1e9 / (System.nanoTime() - start);
+	}
+}